@@ -0,0 +1,59 @@
+package nkodem.numguesser;
+
+import java.io.*;
+import java.nio.CharBuffer;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Scanner;
+
+// The console behind the menu Scanner, handed over one line per read so the Scanner never holds
+// more than the line it was asked for. Everything read ahead sits in one BufferedReader, so
+// ready() can tell a second reader, such as the network client, whether a line is waiting;
+// System.in.available() misses whatever the buffers already took when input is piped.
+public final class ConsoleInput implements Readable {
+    private final BufferedReader in;
+    private final Scanner scanner;
+    // the rest of a line that did not fit into the Scanner's buffer
+    private String pending;
+    // lines a reader took but did not use, read again before the BufferedReader
+    private final ArrayDeque<String> returned = new ArrayDeque<>();
+
+    public ConsoleInput(InputStream in) {
+        this.in = new BufferedReader(new InputStreamReader(in));
+        this.scanner = new Scanner(this);
+    }
+
+    public Scanner scanner() {
+        return scanner;
+    }
+
+    // true when readLine() will not wait for the user
+    public synchronized boolean ready() throws IOException {
+        return pending != null || !returned.isEmpty() || in.ready();
+    }
+
+    // puts lines back in front of the input, e.g. what a game that ended early did not use
+    public synchronized void giveBack(List<String> lines) {
+        for (int i = lines.size() - 1; i >= 0; i--) {
+            returned.addFirst(lines.get(i));
+        }
+    }
+
+    // through the Scanner, so neither reader sees a line twice; null at the end of input
+    public String readLine() {
+        return scanner.hasNextLine() ? scanner.nextLine() : null;
+    }
+
+    @Override
+    public synchronized int read(CharBuffer cb) throws IOException {
+        if (pending == null) {
+            String line = returned.isEmpty() ? in.readLine() : returned.pollFirst();
+            if (line == null) return -1;
+            pending = line + "\n";
+        }
+        int n = Math.min(cb.remaining(), pending.length());
+        cb.put(pending, 0, n);
+        pending = n == pending.length() ? null : pending.substring(n);
+        return n;
+    }
+}
@@ -0,0 +1,98 @@
+package nkodem.numguesser;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+// Options for scripted start-up: "--key value" or bare "--flag" on the command line, the same
+// keys without dashes in a properties file given by --config. Command line wins.
+public class LaunchOptions {
+    private final Map<String, String> values = new HashMap<>();
+
+    public static LaunchOptions parse(String[] args) throws IOException {
+        LaunchOptions cli = new LaunchOptions();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            String key = arg.substring(2);
+            String value = "true";
+            int eq = key.indexOf('=');
+            if (eq >= 0) {
+                value = key.substring(eq + 1);
+                key = key.substring(0, eq);
+            } else if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                value = args[++i];
+            }
+            cli.values.put(key, value);
+        }
+
+        LaunchOptions options = new LaunchOptions();
+        String config = cli.values.get("config");
+        if (config != null) {
+            Properties props = new Properties();
+            try (Reader r = new FileReader(config)) {
+                props.load(r);
+            }
+            for (String key : props.stringPropertyNames()) {
+                options.values.put(key, props.getProperty(key).trim());
+            }
+        }
+        options.values.putAll(cli.values);
+        return options;
+    }
+
+    public boolean has(String key) {
+        return values.containsKey(key);
+    }
+
+    public boolean flag(String key) {
+        return Boolean.parseBoolean(values.getOrDefault(key, "false"));
+    }
+
+    public String get(String key, String def) {
+        return values.getOrDefault(key, def);
+    }
+
+    public int getInt(String key, int def) {
+        String v = values.get(key);
+        return v == null ? def : Integer.parseInt(v);
+    }
+
+    public double getDouble(String key, double def) {
+        String v = values.get(key);
+        return v == null ? def : Double.parseDouble(v);
+    }
+
+    public int[] getRange(String key, int[] def) {
+        String v = values.get(key);
+        return v == null ? def : parseRange(v);
+    }
+
+    // "low:high" or one of the difficulty names used by the menus
+    public static int[] parseRange(String v) {
+        switch (v.trim().toLowerCase()) {
+            case "easy": return new int[]{0, 100};
+            case "normal": return new int[]{0, 10000};
+            case "hard": return new int[]{0, 1000000};
+            default:
+                String[] parts = v.split(":");
+                if (parts.length != 2) throw new IllegalArgumentException("Range must be low:high, got " + v);
+                int low = Integer.parseInt(parts[0].trim());
+                int high = Integer.parseInt(parts[1].trim());
+                if (low >= high) throw new IllegalArgumentException("Range low must be below high: " + v);
+                return new int[]{low, high};
+        }
+    }
+
+    // "host:port", falling back to defPort when no port is given
+    public static String[] hostAndPort(String target, int defPort) {
+        int sep = target.lastIndexOf(':');
+        if (sep < 0) return new String[]{target, String.valueOf(defPort)};
+        return new String[]{target.substring(0, sep), target.substring(sep + 1)};
+    }
+}
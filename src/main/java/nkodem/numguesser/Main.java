@@ -1,20 +1,49 @@
 package nkodem.numguesser;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import nkodem.numguesser.network.Matchmaker;
 import nkodem.numguesser.network.NetworkClient;
 import nkodem.numguesser.network.NetworkServer;
+import nkodem.numguesser.network.RateLimiter;
+import nkodem.numguesser.network.cluster.ClusterLauncher;
+import nkodem.numguesser.network.cluster.LocalCoordinator;
+import nkodem.numguesser.profile.ProfileAnalytics;
 
 
 
 public class Main {
-    private static final ExecutorService bg = Executors.newCachedThreadPool();
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: Main [--config file.properties] <mode> [options]",
+            "  --host     [--port 5000] [--range 0:100|easy|normal|hard] [--players 2] [--auto-start]",
+            "             [--no-console] [--spectator-port N] [--resume-grace 60] [--drain 10]",
+            "             [--guess-rate 20] [--guess-burst 40] [--no-rate-limit] [--race seconds]",
+            "             [--bots 0] [--bot-think-ms 500] [--checkpoint file] [--checkpoint-ms 2000] [--udp]",
+            "  --join     host:port [--nick name] [--auto] [--queue easy|normal|hard|low:high] [--udp]",
+            "  --cluster  [--port 5000] [--nodes 2] [--range 1:100] [--players 2]",
+            "  --matchmaker [--port 5000] [--room-size 4] [--wait 20] [--range 0:100] [--no-console]",
+            "             [--spectator-port N]",
+            "  --bench    host:port [--clients 10] [--udp]",
+            "  --profiles dir|store[,...] [--compact out.ngps] [--threads N] [--run-size 20000]",
+            "Without arguments the interactive menu starts.");
 
     public static void main(String[] args) {
-        Scanner scanner = new Scanner(System.in);
+        if (args.length > 0) {
+            runHeadless(args);
+            return;
+        }
+        // one reader for the whole session; the network client shares it during a game
+        ConsoleInput console = new ConsoleInput(System.in);
+        Scanner scanner = console.scanner();
 
         // ====== Player login ======
         System.out.print("Enter your nickname: ");
@@ -54,7 +83,7 @@ public class Main {
                     game.start();
                 }
                 case 4 -> hostGame(scanner);
-                case 5 -> joinGame(scanner);
+                case 5 -> joinGame(console, player.getNickname());
                 case 0 -> {
                     System.out.println("Saving data and exiting...");
                     player.saveData();
@@ -66,7 +95,8 @@ public class Main {
         }
     }
 
-    private static void joinGame(Scanner scanner) {
+    private static void joinGame(ConsoleInput console, String nickname) {
+        Scanner scanner = console.scanner();
         try {
             System.out.print("Host (default localhost): ");
             String host = scanner.nextLine().trim();
@@ -77,7 +107,9 @@ public class Main {
             int port = portStr.isEmpty() ? 5000 : Integer.parseInt(portStr);
 
             try {
-                new NetworkClient(host, port).start();
+                NetworkClient client = new NetworkClient(host, port);
+                client.setNickname(nickname);
+                client.start(console);
             } catch (IOException e) {
                 System.out.println("NetworkClient error: " + e.getMessage());
             }
@@ -103,9 +135,16 @@ public class Main {
             System.out.print("Specify player number: (default 2): ");
             String playerNumStr = scanner.nextLine().trim();
             int playerCount = playerNumStr.isEmpty()? 2 : Integer.parseInt(playerNumStr);
+
+            System.out.print("Spectator port (default none): ");
+            String spectatorStr = scanner.nextLine().trim();
+            int spectatorPort = spectatorStr.isEmpty() ? 0 : Integer.parseInt(spectatorStr);
             System.out.println("Starting server in on port " + port + ". Waiting for clients...");
             try {
-                new NetworkServer(port, low, high, playerCount).start();
+                NetworkServer server = new NetworkServer(port, low, high, playerCount);
+                server.setSpectatorPort(spectatorPort);
+                // the host console reads through the menu's Scanner, not a second buffer on stdin
+                server.start(scanner);
             } catch (IOException e) {
                 System.out.println("NetworkServer error: " + e.getMessage());
             }
@@ -115,6 +154,138 @@ public class Main {
     }
 
 
+    // scripted start-up; never builds the interactive menus
+    private static void runHeadless(String[] args) {
+        // whichever mode runs, stdin has this one reader
+        ConsoleInput console = new ConsoleInput(System.in);
+        try {
+            LaunchOptions options = LaunchOptions.parse(args);
+            if (options.has("host")) {
+                runServer(options, console);
+            } else if (options.has("join")) {
+                String[] target = LaunchOptions.hostAndPort(options.get("join", "localhost"), 5000);
+                NetworkClient client = new NetworkClient(target[0], Integer.parseInt(target[1]));
+                client.setAutoPlay(options.flag("auto"));
+                client.setNickname(options.get("nick", null));
+                client.setQueue(options.get("queue", null));
+                client.setDatagrams(options.flag("udp"));
+                client.start(console);
+            } else if (options.has("cluster")) {
+                int[] range = options.getRange("range", new int[]{1, 100});
+                new ClusterLauncher(new LocalCoordinator(), options.getInt("port", 5000), options.getInt("nodes", 2),
+                        range[0], range[1], options.getInt("players", 2)).start(console.scanner());
+            } else if (options.has("matchmaker")) {
+                Matchmaker matchmaker = new Matchmaker(options.getInt("port", 5000), options.getInt("room-size", 4),
+                        options.getInt("wait", 20), options.getRange("range", new int[]{0, 100}));
+                matchmaker.setSpectatorPort(options.getInt("spectator-port", 0));
+                matchmaker.start(options.flag("no-console") ? null : console.scanner());
+            } else if (options.has("bench")) {
+                runBench(options);
+            } else if (options.has("profiles")) {
+                runProfiles(options);
+            } else {
+                System.out.println(USAGE);
+            }
+        } catch (IOException e) {
+            System.out.println("Error: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(USAGE);
+        }
+    }
+
+    private static void runServer(LaunchOptions options, ConsoleInput input) throws IOException {
+        int[] range = options.getRange("range", new int[]{0, 100});
+        int port = options.getInt("port", 5000);
+        boolean console = !options.flag("no-console");
+        NetworkServer server = new NetworkServer(port, range[0], range[1], options.getInt("players", 2));
+        server.setSpectatorPort(options.getInt("spectator-port", 0));
+        server.setResumeGraceSeconds(options.getInt("resume-grace", 60));
+        server.setRaceSeconds(options.getInt("race", 0));
+        server.setBots(options.getInt("bots", 0));
+        server.setBotThinkMs(options.getInt("bot-think-ms", 500));
+        server.setCheckpoint(options.get("checkpoint", null), options.getInt("checkpoint-ms", 2000));
+        server.setDatagrams(options.flag("udp"));
+        // without a console nobody could type start
+        server.setAutoStart(options.flag("auto-start") || !console);
+        if (options.flag("no-rate-limit")) {
+            server.setRateLimiter(null);
+        } else if (options.has("guess-rate")) {
+            double rate = options.getDouble("guess-rate", 20);
+            int burst = options.getInt("guess-burst", (int) (rate * 2));
+            server.setRateLimiter(new RateLimiter(rate, burst, 5, 10, rate * 10, burst * 10, 50));
+        }
+        // SIGTERM from a container runtime drains instead of cutting games off
+        int drainSeconds = options.getInt("drain", 10);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> server.drain(drainSeconds), "Drain-Hook"));
+        System.out.println("Starting server on port " + port + " for range " + range[0] + "-" + range[1] + ".");
+        server.start(console ? input.scanner() : null);
+    }
+
+    // offline statistics over stored profiles, optionally compacting them into one store
+    private static void runProfiles(LaunchOptions options) throws IOException {
+        String list = options.get("profiles", ".");
+        List<Path> sources = new ArrayList<>();
+        for (String s : (list.equals("true") ? "." : list).split(",")) {
+            sources.add(Paths.get(s.trim()));
+        }
+        ProfileAnalytics analytics = new ProfileAnalytics(sources,
+                options.getInt("threads", Runtime.getRuntime().availableProcessors()));
+        analytics.setRunSize(options.getInt("run-size", 20_000));
+        if (options.has("compact")) analytics.setCompactTo(Paths.get(options.get("compact", null)));
+        try {
+            analytics.run().print(System.out);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // runs auto-playing clients against a server in parallel and reports the totals
+    private static void runBench(LaunchOptions options) {
+        String[] target = LaunchOptions.hostAndPort(options.get("bench", "localhost"), 5000);
+        int clients = options.getInt("clients", 10);
+        boolean udp = options.flag("udp");
+        ExecutorService bg = Executors.newCachedThreadPool();
+        List<Future<NetworkClient>> runs = new ArrayList<>();
+        long startNanos = System.nanoTime();
+        for (int i = 1; i <= clients; i++) {
+            String nick = "bench-" + i;
+            runs.add(bg.submit(() -> {
+                NetworkClient client = new NetworkClient(target[0], Integer.parseInt(target[1]));
+                client.setAutoPlay(true);
+                client.setQuiet(true);
+                client.setNickname(nick);
+                client.setDatagrams(udp);
+                client.start(null);
+                return client;
+            }));
+        }
+        int solved = 0;
+        long guesses = 0;
+        // the average only counts clients that solved, a client that gave up or failed has no score
+        long solvedGuesses = 0;
+        int failed = 0;
+        for (Future<NetworkClient> run : runs) {
+            try {
+                NetworkClient client = run.get();
+                if (client.hasGuessedCorrect()) {
+                    solved++;
+                    solvedGuesses += client.getGuesses();
+                }
+                guesses += client.getGuesses();
+            } catch (ExecutionException e) {
+                failed++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        bg.shutdown();
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.printf("clients=%d solved=%d failed=%d guesses=%d avg-per-solve=%.2f elapsed=%.2fs%n",
+                clients, solved, failed, guesses, solved == 0 ? 0.0 : (double) solvedGuesses / solved, seconds);
+    }
+
     private static int[] chooseDifficulty(Scanner scanner) {
         while (true) {
             System.out.println("\n=== Difficulty Levels ===");
@@ -1,27 +1,29 @@
 package nkodem.numguesser;
 
 import java.io.*;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+import nkodem.numguesser.jfr.ProfileIoEvent;
+
+// The profile file is read the first time a stat is touched, not in the constructor, so a
+// Player that never plays a mode with stats costs no disk access at all.
 public class Player {
+    // shared by every player without scores in a table; replaced on the first put
+    private static final Map<String, Integer> NO_SCORES = Collections.emptyMap();
+
     private String nickname;
-    private Map<String, Integer> bestScores; // difficulty -> best score
-    private Map<String, Integer> bestBotScores; // difficulty -> best score
+    private Map<String, Integer> bestScores = NO_SCORES; // difficulty -> best score
+    private Map<String, Integer> bestBotScores = NO_SCORES; // difficulty -> best score
     private int wins;
     private int losses;
     private int botGames;
     private int timesBotFooled;
+    private boolean loaded = false;
 
     public Player(String nickname) {
         this.nickname = nickname;
-        this.bestScores = new HashMap<>();
-        this.bestBotScores = new HashMap<>();
-        this.wins = 0;
-        this.losses = 0;
-        this.botGames = 0;
-        this.timesBotFooled = 0;
-        loadData();
     }
 
     public String getNickname() {
@@ -29,39 +31,60 @@ public class Player {
     }
 
     public int getBestScore(String difficulty) {
+        ensureLoaded();
         return bestScores.getOrDefault(difficulty, Integer.MAX_VALUE);
     }
 
     public void setBestScore(String difficulty, int score) {
+        ensureLoaded();
         int current = bestScores.getOrDefault(difficulty, Integer.MAX_VALUE);
         if (score < current) {
-            bestScores.put(difficulty, score);
+            bestScores = put(bestScores, difficulty, score);
         }
     }
 
     public int getBestBotScore(String difficulty) {
+        ensureLoaded();
         return bestBotScores.getOrDefault(difficulty, Integer.MAX_VALUE);
     }
 
     public void setBestBotScore(String difficulty, int score) {
+        ensureLoaded();
         int current = bestBotScores.getOrDefault(difficulty, Integer.MAX_VALUE);
         if (score < current) {
-            bestBotScores.put(difficulty, score);
+            bestBotScores = put(bestBotScores, difficulty, score);
         }
     }
 
-    public void addWin() { wins++; }
-    public void addLoss() { losses++; }
-    public int getWins() { return wins; }
-    public int getLosses() { return losses; }
-    public int addBotGames() { return botGames++; }
-    public int addBotFooled() { return timesBotFooled++; }
+    public void addWin() { ensureLoaded(); wins++; }
+    public void addLoss() { ensureLoaded(); losses++; }
+    public int getWins() { ensureLoaded(); return wins; }
+    public int getLosses() { ensureLoaded(); return losses; }
+    public int addBotGames() { ensureLoaded(); return botGames++; }
+    public int addBotFooled() { ensureLoaded(); return timesBotFooled++; }
 
+    private static Map<String, Integer> put(Map<String, Integer> scores, String difficulty, int score) {
+        Map<String, Integer> m = scores == NO_SCORES ? new HashMap<>() : scores;
+        m.put(difficulty, score);
+        return m;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        loadData();
+    }
 
     private void loadData() {
+        ProfileIoEvent event = new ProfileIoEvent();
+        event.begin();
         File file = new File(nickname + ".txt");
-        if (!file.exists()) return;
+        if (!file.exists()) {
+            recordIo(event, "load", false, true);
+            return;
+        }
 
+        boolean ok = true;
         try (BufferedReader br = new BufferedReader(new FileReader(file))) {
             String line;
             while ((line = br.readLine()) != null) {
@@ -70,7 +93,7 @@ public class Player {
                     case "easy":
                     case "normal":
                     case "hard":
-                        bestScores.put(data[0], Integer.parseInt(data[1]));
+                        bestScores = put(bestScores, data[0], Integer.parseInt(data[1]));
                         break;
                     case "wins":
                         wins = Integer.parseInt(data[1]);
@@ -81,7 +104,7 @@ public class Player {
                     case "botEasy":
                     case "botNormal":
                     case "botHard":
-                        bestBotScores.put(data[0].substring(3).toLowerCase(), Integer.parseInt(data[1]));
+                        bestBotScores = put(bestBotScores, data[0].substring(3).toLowerCase(), Integer.parseInt(data[1]));
                         break;
                     case "botGames":
                         botGames = Integer.parseInt(data[1]);
@@ -93,11 +116,19 @@ public class Player {
                 }
             }
         } catch (IOException e) {
+            ok = false;
             System.out.println("Error loading player data.");
         }
+        recordIo(event, "load", true, ok);
     }
 
+    // Nothing can have changed before the profile was read, and writing then would replace the
+    // stored stats with zeros, so an untouched player is not written at all.
     public void saveData() {
+        if (!loaded) return;
+        ProfileIoEvent event = new ProfileIoEvent();
+        event.begin();
+        boolean ok = true;
         try (BufferedWriter bw = new BufferedWriter(new FileWriter(nickname + ".txt"))) {
             for (String difficulty : bestScores.keySet()) {
                 bw.write(difficulty + ":" + bestScores.get(difficulty));
@@ -116,8 +147,21 @@ public class Player {
             bw.write("botFooled:" + timesBotFooled);
             bw.newLine();
         } catch (IOException e) {
+            ok = false;
             System.out.println("Error saving player data.");
         }
+        recordIo(event, "save", true, ok);
+    }
+
+    private void recordIo(ProfileIoEvent event, String operation, boolean found, boolean success) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.nickname = nickname;
+            event.operation = operation;
+            event.found = found;
+            event.success = success;
+            event.commit();
+        }
     }
 }
 
@@ -0,0 +1,26 @@
+package nkodem.numguesser.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("numguesser.ConnectionAccepted")
+@Label("Connection Accepted")
+@Description("A player connection was registered or resumed")
+@Category({"NumGuesser", "Network"})
+@StackTrace(false)
+public class ConnectionAcceptedEvent extends jdk.jfr.Event {
+    @Label("Session Id")
+    public int sessionId;
+
+    @Label("Remote Address")
+    public String remoteAddress;
+
+    @Label("Server Port")
+    public int port;
+
+    @Label("Resumed")
+    public boolean resumed;
+}
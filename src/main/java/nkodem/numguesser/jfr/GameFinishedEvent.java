@@ -0,0 +1,32 @@
+package nkodem.numguesser.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("numguesser.GameFinished")
+@Label("Game Finished")
+@Description("A player's game from START to guessing, quitting or being cut off")
+@Category({"NumGuesser", "Game"})
+@StackTrace(false)
+public class GameFinishedEvent extends jdk.jfr.Event {
+    @Label("Session Id")
+    public int sessionId;
+
+    @Label("Nickname")
+    public String nickname;
+
+    @Label("Range Low")
+    public int low;
+
+    @Label("Range High")
+    public int high;
+
+    @Label("Attempts")
+    public int attempts;
+
+    @Label("Guessed")
+    public boolean guessed;
+}
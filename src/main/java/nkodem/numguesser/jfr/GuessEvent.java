@@ -0,0 +1,32 @@
+package nkodem.numguesser.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("numguesser.Guess")
+@Label("Guess")
+@Description("One GUESS line handled by the server")
+@Category({"NumGuesser", "Game"})
+@StackTrace(false)
+public class GuessEvent extends jdk.jfr.Event {
+    @Label("Session Id")
+    public int sessionId;
+
+    @Label("Attempt")
+    public int attempt;
+
+    @Label("Guess")
+    public int guess;
+
+    @Label("Range Low")
+    public int low;
+
+    @Label("Range High")
+    public int high;
+
+    @Label("Result")
+    public String result;
+}
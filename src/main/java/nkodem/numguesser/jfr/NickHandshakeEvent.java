@@ -0,0 +1,23 @@
+package nkodem.numguesser.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("numguesser.NickHandshake")
+@Label("NICK Handshake")
+@Description("Wait for the optional NICK line after START; duration includes the client's delay")
+@Category({"NumGuesser", "Network"})
+@StackTrace(false)
+public class NickHandshakeEvent extends jdk.jfr.Event {
+    @Label("Session Id")
+    public int sessionId;
+
+    @Label("Nickname")
+    public String nickname;
+
+    @Label("Nick Received")
+    public boolean received;
+}
@@ -0,0 +1,24 @@
+package nkodem.numguesser.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("numguesser.ProfileIo")
+@Label("Profile I/O")
+@Description("Player.loadData or Player.saveData")
+@Category({"NumGuesser", "Persistence"})
+public class ProfileIoEvent extends jdk.jfr.Event {
+    @Label("Nickname")
+    public String nickname;
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("File Found")
+    public boolean found;
+
+    @Label("Success")
+    public boolean success;
+}
@@ -0,0 +1,26 @@
+package nkodem.numguesser.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("numguesser.RankingBroadcast")
+@Label("Ranking Broadcast")
+@Description("Building the final ranking and sending it to every player")
+@Category({"NumGuesser", "Game"})
+@StackTrace(false)
+public class RankingBroadcastEvent extends jdk.jfr.Event {
+    @Label("Ranked Players")
+    public int players;
+
+    @Label("Recipients")
+    public int recipients;
+
+    @Label("Range Low")
+    public int low;
+
+    @Label("Range High")
+    public int high;
+}
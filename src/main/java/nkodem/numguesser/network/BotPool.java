@@ -0,0 +1,84 @@
+package nkodem.numguesser.network;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import nkodem.numguesser.network.NetworkServer.SessionInfo;
+
+// Server-side bots. A bot is a session without a socket or a thread: every move is a task on
+// one small scheduler shared by all bots of the room, so a few hundred bots cost a few objects
+// each. They play like the computer in MixedGame, guessing at random inside what is still possible.
+class BotPool {
+    private static final int THREADS = 2;
+
+    private final GameRoom room;
+    private final int thinkMs;
+    private ScheduledExecutorService scheduler;
+
+    BotPool(GameRoom room, int thinkMs) {
+        this.room = room;
+        this.thinkMs = Math.max(0, thinkMs);
+    }
+
+    synchronized void play(SessionInfo s) {
+        if (scheduler == null) {
+            scheduler = Executors.newScheduledThreadPool(THREADS, r -> {
+                Thread t = new Thread(r, "Bots");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        if (scheduler.isShutdown()) return;
+        // a bot restored from a checkpoint keeps its number
+        if (!s.secretAssigned) s.assignSecret(ThreadLocalRandom.current().nextInt(room.low, room.high + 1));
+        schedule(new Bot(s));
+    }
+
+    synchronized void shutdown() {
+        if (scheduler != null) scheduler.shutdownNow();
+    }
+
+    private synchronized void schedule(Bot bot) {
+        if (scheduler.isShutdown()) return;
+        // think between half and one and a half times thinkMs so bots do not move in lockstep
+        long delay = thinkMs / 2 + ThreadLocalRandom.current().nextInt(thinkMs + 1);
+        scheduler.schedule(bot, delay, TimeUnit.MILLISECONDS);
+    }
+
+    // only one move of a bot is ever scheduled at a time, so its bounds need no locking
+    private final class Bot implements Runnable {
+        private final SessionInfo session;
+        private int min = room.low;
+        private int max = room.high;
+
+        Bot(SessionInfo session) {
+            this.session = session;
+        }
+
+        @Override
+        public void run() {
+            if (session.finished) {
+                // kicked, drained or out of time
+                room.sendRankingIfDone();
+                return;
+            }
+            int guess = ThreadLocalRandom.current().nextInt(min, max + 1);
+            switch (room.evaluate(session, guess)) {
+                case LOW -> min = guess + 1;
+                case HIGH -> max = guess - 1;
+                case CORRECT -> {
+                    room.solved(session);
+                    room.sendRankingIfDone();
+                    return;
+                }
+                case LATE -> {
+                    room.sendRankingIfDone();
+                    return;
+                }
+            }
+            schedule(this);
+        }
+    }
+}
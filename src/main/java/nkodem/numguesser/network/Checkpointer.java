@@ -0,0 +1,185 @@
+package nkodem.numguesser.network;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.zip.CRC32;
+
+import nkodem.numguesser.network.NetworkServer.SessionInfo;
+
+// Periodic snapshots of the started sessions of one room, so a game can be picked up again
+// after the process dies. The writer has its own thread and reads the volatile session fields
+// without taking any lock, so guesses never wait for it. Each session is captured field by
+// field; guesses only grow and the flags only flip once, so a snapshot is at worst one guess
+// behind. An unchanged image is not written again; a changed one goes to a temp file that is
+// synced and then renamed over the old file.
+class Checkpointer {
+    private static final int MAGIC = 0x4E474350; // "NGCP"
+    // 2 added the race time left
+    private static final int VERSION = 2;
+    private static final int STARTED = 1;
+    private static final int FINISHED = 2;
+    private static final int SOLVED = 4;
+    private static final int BOT = 8;
+    private static final int HAS_SECRET = 16;
+
+    private final Path file;
+    private final Path tmp;
+    private final int intervalMs;
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Checkpoint");
+        t.setDaemon(true);
+        return t;
+    });
+    private byte[] last;
+    private boolean closed = false;
+
+    Checkpointer(Path file, int intervalMs) {
+        this.file = file;
+        this.tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        this.intervalMs = Math.max(100, intervalMs);
+    }
+
+    void start(GameRoom room, IntSupplier nextId) {
+        writer.scheduleWithFixedDelay(() -> {
+            try {
+                write(room, nextId.getAsInt());
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Checkpoint failed: " + e.getMessage());
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    // the game ended on purpose; nothing to recover any more
+    synchronized void discard() {
+        closed = true;
+        writer.shutdownNow();
+        try {
+            Files.deleteIfExists(tmp);
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.out.println("Could not remove checkpoint " + file + ": " + e.getMessage());
+        }
+    }
+
+    synchronized void write(GameRoom room, int nextId) throws IOException {
+        if (closed) return;
+        byte[] data = encode(room, nextId);
+        if (Arrays.equals(data, last)) return;
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            while (buf.hasRemaining()) ch.write(buf);
+            ch.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        last = data;
+    }
+
+    private static byte[] encode(GameRoom room, int nextId) throws IOException {
+        List<SessionInfo> started = new ArrayList<>();
+        for (SessionInfo s : room.sessions) {
+            if (s.started) started.add(s);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + started.size() * 48);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(room.low);
+        out.writeInt(room.high);
+        out.writeInt(nextId);
+        // the clock goes on while the image is unchanged, so it is only written in whole seconds
+        long raceLeft = room.race == null ? -1 : room.race.remainingMillis();
+        out.writeLong(raceLeft < 0 ? -1 : raceLeft / 1000 * 1000);
+        out.writeInt(started.size());
+        for (SessionInfo s : started) {
+            boolean hasSecret = s.secretAssigned;
+            int flags = STARTED;
+            if (s.finished) flags |= FINISHED;
+            if (s.guessedCorrect) flags |= SOLVED;
+            if (s.isBot()) flags |= BOT;
+            if (hasSecret) flags |= HAS_SECRET;
+            out.writeInt(s.id);
+            out.writeByte(flags);
+            out.writeInt(hasSecret ? s.secret : 0);
+            out.writeInt(s.guesses);
+            out.writeLong(s.solveMillis);
+            out.writeUTF(s.nickname == null ? "" : s.nickname);
+            out.writeUTF(s.resumeToken == null ? "" : s.resumeToken);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static Snapshot load(Path file) throws IOException {
+        byte[] data = Files.readAllBytes(file);
+        if (data.length < Long.BYTES) throw new IOException("truncated");
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - Long.BYTES);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        in.skipNBytes(data.length - Long.BYTES);
+        if (in.readLong() != crc.getValue()) throw new IOException("checksum mismatch");
+
+        in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt() != MAGIC) throw new IOException("not a checkpoint");
+        int version = in.readByte();
+        if (version != VERSION) throw new IOException("unsupported version " + version);
+        Snapshot snap = new Snapshot(in.readInt(), in.readInt(), in.readInt(), in.readLong());
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int id = in.readInt();
+            int flags = in.readByte();
+            int secret = in.readInt();
+            SessionInfo s = new SessionInfo(id, null, (flags & BOT) != 0);
+            if ((flags & HAS_SECRET) != 0) s.assignSecret(secret);
+            s.guesses = in.readInt();
+            s.solveMillis = in.readLong();
+            String nick = in.readUTF();
+            String token = in.readUTF();
+            s.nickname = nick.isEmpty() ? null : nick;
+            s.resumeToken = token.isEmpty() ? null : token;
+            snap.entries.add(new Snapshot.Entry(s, (flags & FINISHED) != 0, (flags & SOLVED) != 0));
+        }
+        return snap;
+    }
+
+    static final class Snapshot {
+        final int low;
+        final int high;
+        final int nextId;
+        // -1 when no race round was running
+        final long raceMillisLeft;
+        final List<Entry> entries = new ArrayList<>();
+
+        Snapshot(int low, int high, int nextId, long raceMillisLeft) {
+            this.low = low;
+            this.high = high;
+            this.nextId = nextId;
+            this.raceMillisLeft = raceMillisLeft;
+        }
+
+        // sessions come back neither started nor finished; GameRoom.restore replays the flags
+        static final class Entry {
+            final SessionInfo session;
+            final boolean finished;
+            final boolean solved;
+
+            Entry(SessionInfo session, boolean finished, boolean solved) {
+                this.session = session;
+                this.finished = finished;
+                this.solved = solved;
+            }
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package nkodem.numguesser.network;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import nkodem.numguesser.jfr.RankingBroadcastEvent;
+import nkodem.numguesser.network.NetworkServer.SessionInfo;
+
+// Everything the handlers of one game share. The session registry doubles as the monitor
+// handlers wait on until every started player has finished.
+class GameRoom {
+    enum Outcome { LOW, HIGH, CORRECT, LATE }
+
+    final int low;
+    final int high;
+    final SessionRegistry sessions;
+    final List<Thread> handlers = Collections.synchronizedList(new ArrayList<>());
+    final SpectatorHub spectators;
+    final ResumeRegistry resumes;
+    final RateLimiter limiter;
+    // null outside race mode
+    final RaceClock race;
+    final BotPool bots;
+    // null unless the server also takes players over UDP
+    volatile UdpGateway udp;
+    private final NetworkServer.ResultListener results;
+    private final AtomicBoolean rankingSent = new AtomicBoolean(false);
+    // how long a RESUME waits for the handler of the connection it replaces to let go
+    private static final long TAKEOVER_MS = 2000;
+
+    GameRoom(int low, int high, SpectatorHub spectators, int resumeGraceSeconds, NetworkServer.ResultListener results,
+             RateLimiter limiter, int raceSeconds, int botThinkMs) {
+        this.low = low;
+        this.limiter = limiter;
+        this.high = high;
+        this.spectators = spectators;
+        this.results = results;
+        this.sessions = new SessionRegistry(raceSeconds > 0);
+        this.race = raceSeconds > 0 ? new RaceClock(this, raceSeconds) : null;
+        this.bots = new BotPool(this, botThinkMs);
+        this.resumes = new ResumeRegistry(resumeGraceSeconds, s -> {
+            System.out.println(nick(s) + " did not come back in time.");
+            spectators.publish("LEFT:" + s.id);
+            finish(s);
+        });
+    }
+
+    static String nick(SessionInfo s) {
+        return s.nickname == null ? "player-" + s.id : s.nickname;
+    }
+
+    void finish(SessionInfo s) {
+        sessions.markFinished(s);
+    }
+
+    // starts a handler for every connected player that is not playing yet
+    int startWaiting() {
+        synchronized (sessions) {
+            int count = 0;
+            int botCount = 0;
+            for (SessionInfo s : sessions) {
+                if (!s.started && !s.finished) {
+                    sessions.markStarted(s);
+                    startHandler(s, false);
+                    if (s.isBot()) {
+                        botCount++;
+                    } else {
+                        System.out.println("Started " + nick(s));
+                    }
+                    count++;
+                }
+            }
+            if (botCount > 0) System.out.println("Started " + botCount + " bots.");
+            if (count > 0 && race != null) race.start();
+            sessions.notifyAll();
+            return count;
+        }
+    }
+
+    void startHandler(SessionInfo s, boolean resumed) {
+        if (s.isBot()) {
+            bots.play(s);
+            return;
+        }
+        if (s.isDatagram()) {
+            UdpGateway g = udp;
+            if (g != null) g.play(s);
+            return;
+        }
+        Thread t = new Thread(new NetworkServer.ClientHandler(s, this, resumed), "Player-" + s.id);
+        // a wedged handler must not keep the JVM alive after the server gave up on it
+        t.setDaemon(true);
+        t.start();
+        handlers.add(t);
+    }
+
+    // Hands a detached session its new connection; null if the token is unknown or expired.
+    // A client often reconnects before the server has noticed the old connection drop: then
+    // the old socket is closed here and the session is taken over once its handler detached it.
+    SessionInfo resume(Socket client, String token) {
+        synchronized (sessions) {
+            SessionInfo info = resumes.claim(token);
+            if (info == null) {
+                SessionInfo attached = attachedWithToken(token);
+                if (attached == null) return null;
+                System.out.println(nick(attached) + " reconnected over a live connection; closing the old one.");
+                attached.closeSocket();
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TAKEOVER_MS);
+                while ((info = resumes.claim(token)) == null && !attached.finished) {
+                    long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remainingMs <= 0) return null;
+                    try {
+                        sessions.wait(remainingMs);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return null;
+                    }
+                }
+                if (info == null) return null;
+            }
+            info.socket = client;
+            startHandler(info, true);
+            sessions.notifyAll();
+            return info;
+        }
+    }
+
+    // Scans the room, but only for a RESUME whose token is not detached, which is rare.
+    // Caller holds the sessions monitor.
+    private SessionInfo attachedWithToken(String token) {
+        if (token == null || token.isEmpty()) return null;
+        for (SessionInfo s : sessions) {
+            if (s.started && !s.finished && !s.isBot() && !s.isDatagram() && s.socket != null
+                    && token.equals(s.resumeToken)) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+    // Puts checkpointed sessions back. Players who were still guessing can only come back
+    // with RESUME; returns how many are waiting for that. A race round goes on with the time
+    // it had left, or gets a whole round if the checkpoint was taken without a clock.
+    int restore(List<Checkpointer.Snapshot.Entry> entries, long raceMillisLeft) {
+        synchronized (sessions) {
+            if (race != null && !entries.isEmpty()) {
+                if (raceMillisLeft >= 0) race.resume(raceMillisLeft);
+                else race.start();
+            }
+            int waiting = 0;
+            for (Checkpointer.Snapshot.Entry e : entries) {
+                SessionInfo s = e.session;
+                long solveMillis = s.solveMillis;
+                sessions.add(s);
+                sessions.markStarted(s);
+                // time to solve still counts from the start of the round, not from the restart
+                if (race != null) s.startedAt = race.roundStartNanos();
+                if (e.solved) {
+                    // markSolved measures from startedAt
+                    s.startedAt = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(solveMillis);
+                    sessions.markSolved(s);
+                }
+                if (e.finished) {
+                    sessions.markFinished(s);
+                } else if (s.isBot()) {
+                    bots.play(s);
+                } else if (resumes.detach(s)) {
+                    if (!s.secretAssigned) s.assignSecret(ThreadLocalRandom.current().nextInt(low, high + 1));
+                    waiting++;
+                } else {
+                    sessions.markFinished(s);
+                }
+            }
+            sessions.notifyAll();
+            return waiting;
+        }
+    }
+
+    boolean allFinished() {
+        return sessions.allFinished();
+    }
+
+    // The guess-evaluation core shared by socket handlers and bots. A CORRECT player is already
+    // in the standings but not finished: tell them first, then call solved(). LATE means the
+    // session was ended from outside and the guess does not count.
+    Outcome evaluate(SessionInfo s, int guess) {
+        int secret = s.secret;
+        s.guesses++;
+        Outcome outcome = guess < secret ? Outcome.LOW : guess > secret ? Outcome.HIGH : Outcome.CORRECT;
+        if (outcome == Outcome.CORRECT && !sessions.markSolved(s)) return Outcome.LATE;
+        if (spectators.hasSpectators()) {
+            spectators.publish("GUESS:" + s.id + ":" + s.guesses + ":" + guess + ":" + outcome);
+        }
+        return outcome;
+    }
+
+    void solved(SessionInfo s) {
+        sessions.markFinished(s);
+        spectators.publish("FINISH:" + s.id + ":" + s.guesses);
+    }
+
+    // false if the deadline passed first
+    boolean awaitAllFinished(long deadlineNanos) {
+        synchronized (sessions) {
+            while (!allFinished()) {
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+                if (remainingMs <= 0) return false;
+                try {
+                    sessions.wait(remainingMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return allFinished();
+                }
+            }
+            return true;
+        }
+    }
+
+    // players who joined but were never started are told BYE and disconnected
+    int dismissWaiting() {
+        synchronized (sessions) {
+            int count = 0;
+            for (SessionInfo s : sessions) {
+                if (!s.started && !s.finished) {
+                    sessions.markFinished(s);
+                    if (s.isBot()) continue;
+                    disconnect(s, "BYE");
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    // ends every unfinished started session as not guessed; their handlers get the ranking and exit
+    int forceFinish() {
+        synchronized (sessions) {
+            int count = 0;
+            for (SessionInfo s : sessions) {
+                if (s.started && sessions.markFinished(s)) count++;
+            }
+            return count;
+        }
+    }
+
+    // called by each handler once its player is done; only the last one through sends anything
+    void awaitAndSendRanking() {
+        synchronized (sessions) {
+            while (!allFinished()) {
+                try {
+                    sessions.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            sendRanking();
+        }
+    }
+
+    // for callers that must not block, such as the bot scheduler
+    void sendRankingIfDone() {
+        synchronized (sessions) {
+            if (allFinished()) sendRanking();
+        }
+    }
+
+    // caller holds the sessions monitor
+    private void sendRanking() {
+        if (!sessions.anyStarted() || !rankingSent.compareAndSet(false, true)) return;
+        RankingBroadcastEvent broadcast = new RankingBroadcastEvent();
+        broadcast.begin();
+
+        // started players, already in order
+        List<SessionInfo> ranking = sessions.standings().all();
+
+        StringBuilder rankingLines = new StringBuilder("RANKING_START");
+        int rankPos = 1;
+        for (SessionInfo r : ranking) {
+            String result = r.guessedCorrect ? String.valueOf(r.guesses) : "-";
+            rankingLines.append('\n').append("RANK:").append(rankPos++).append(':').append(nick(r)).append(':').append(result);
+        }
+        rankingLines.append('\n').append("RANKING_END");
+        spectators.publish(rankingLines.toString());
+        if (results != null) results.onRanking(ranking);
+
+        // Send ranking
+        int recipients = 0;
+        for (SessionInfo s : sessions) {
+            try {
+                PrintWriter pw = s.out;
+                if (pw == null) {
+                    if (s.socket == null) continue;
+                    try {
+                        pw = new PrintWriter(s.socket.getOutputStream(), true);
+                        s.out = pw;
+                    } catch (IOException ioe) {
+                        continue;
+                    }
+                }
+                pw.println(rankingLines);
+                pw.println("BYE");
+                s.closeSocket();
+                recipients++;
+            } catch (Exception ex) {
+                // ignore per-client send errors
+            }
+        }
+        broadcast.end();
+        if (broadcast.shouldCommit()) {
+            broadcast.players = ranking.size();
+            broadcast.recipients = recipients;
+            broadcast.low = low;
+            broadcast.high = high;
+            broadcast.commit();
+        }
+    }
+
+    // drops one player whatever the transport; a TCP player learns it from the closed socket
+    void disconnect(SessionInfo s, String farewell) {
+        if (s.isDatagram()) {
+            UdpGateway g = udp;
+            if (g != null) g.kick(s);
+            return;
+        }
+        if (farewell != null && s.socket != null) {
+            try {
+                new PrintWriter(s.socket.getOutputStream(), true).println(farewell);
+            } catch (IOException ignored) {
+            }
+        }
+        s.closeSocket();
+    }
+
+    boolean rankingSent() {
+        return rankingSent.get();
+    }
+
+    // disconnects everybody; handlers see their sockets close and finish
+    void closeAll() {
+        if (race != null) race.stop();
+        bots.shutdown();
+        resumes.close();
+        synchronized (sessions) {
+            for (SessionInfo s : sessions) {
+                if (s.isBot() || s.isDatagram()) sessions.markFinished(s);
+                else s.closeSocket();
+            }
+            sessions.notifyAll();
+        }
+        UdpGateway g = udp;
+        if (g != null) g.close();
+    }
+}
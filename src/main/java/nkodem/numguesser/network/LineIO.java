@@ -0,0 +1,150 @@
+package nkodem.numguesser.network;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+// Line I/O for sessions that are idle most of the time. BufferedReader/InputStreamReader and
+// PrintWriter/BufferedWriter/OutputStreamWriter keep about 48K of char and byte buffers per
+// connection for its whole life; these hold nothing between messages and a few hundred bytes
+// while one is in flight.
+final class LineIO {
+    // Protocol lines are short. A longer one is dropped up to its newline and read as an empty
+    // line, which matches no command and so counts as one malformed line.
+    static final int MAX_LINE = 256;
+
+    private LineIO() {
+    }
+
+    static PrintWriter writer(OutputStream out) {
+        return new PrintWriter(new LineWriter(out), true);
+    }
+
+    static final class LineReader {
+        private final InputStream in;
+        // only allocated while a line, or input that arrived after one, is pending
+        private byte[] buf;
+        private int pos;
+        private int limit;
+
+        LineReader(InputStream in) {
+            this.in = in;
+        }
+
+        // same contract as BufferedReader.readLine: no terminator, null at end of stream
+        String readLine() throws IOException {
+            if (buf == null) {
+                // wait for the next message without holding a buffer
+                int b = in.read();
+                if (b == -1) return null;
+                buf = new byte[MAX_LINE];
+                buf[0] = (byte) b;
+                pos = 0;
+                limit = 1;
+                fill(false);
+            }
+            int scan = pos;
+            while (true) {
+                for (; scan < limit; scan++) {
+                    if (buf[scan] == '\n') return take(scan, scan + 1);
+                }
+                if (pos > 0) {
+                    // move the partial line to the front to make room
+                    System.arraycopy(buf, pos, buf, 0, limit - pos);
+                    scan -= pos;
+                    limit -= pos;
+                    pos = 0;
+                }
+                if (limit == buf.length) return skipLine();
+                if (!fill(true)) {
+                    return limit > pos ? take(limit, limit) : release();
+                }
+            }
+        }
+
+        // false at end of stream
+        private boolean fill(boolean block) throws IOException {
+            int want = buf.length - limit;
+            if (!block) want = Math.min(want, in.available());
+            if (want <= 0) return true;
+            int n = in.read(buf, limit, want);
+            if (n < 0) return false;
+            limit += n;
+            return true;
+        }
+
+        // the whole buffer is one unfinished line: throw it away along with the rest of it
+        private String skipLine() throws IOException {
+            while (true) {
+                pos = 0;
+                limit = 0;
+                if (!fill(true)) {
+                    release();
+                    return "";
+                }
+                for (int i = 0; i < limit; i++) {
+                    if (buf[i] == '\n') {
+                        pos = i + 1;
+                        if (pos == limit) release();
+                        return "";
+                    }
+                }
+            }
+        }
+
+        private String take(int end, int next) {
+            int len = end - pos;
+            if (len > 0 && buf[end - 1] == '\r') len--;
+            String line = new String(buf, pos, len, StandardCharsets.UTF_8);
+            pos = next;
+            if (pos == limit) release();
+            return line;
+        }
+
+        private String release() {
+            buf = null;
+            pos = 0;
+            limit = 0;
+            return null;
+        }
+    }
+
+    // PrintWriter's lock is this writer, so each println reaches the socket as one write
+    static final class LineWriter extends Writer {
+        private final OutputStream out;
+        private StringBuilder pending;
+
+        LineWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            if (pending == null) pending = new StringBuilder(Math.max(64, len));
+            pending.append(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            if (pending == null) pending = new StringBuilder(Math.max(64, len));
+            pending.append(str, off, off + len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (pending == null) return;
+            byte[] bytes = pending.toString().getBytes(StandardCharsets.UTF_8);
+            pending = null;
+            out.write(bytes);
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                out.close();
+            }
+        }
+    }
+}
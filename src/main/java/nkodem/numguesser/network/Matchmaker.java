@@ -0,0 +1,275 @@
+package nkodem.numguesser.network;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nkodem.numguesser.LaunchOptions;
+import nkodem.numguesser.network.NetworkServer.SessionInfo;
+
+// Accepts players forever and groups them into rooms by the range they ask for. A client may
+// open with QUEUE:<easy|normal|hard|low:high>; anyone else joins the default range. A room
+// starts as soon as it has roomSize players or waitSeconds after its first player arrived,
+// whichever comes first, so games keep starting with nobody at the console.
+public class Matchmaker {
+    private static final int INTAKE_PEEK_MS = 500;
+    private static final int RESUME_GRACE_SECONDS = 60;
+    private static final int BOT_THINK_MS = 500;
+
+    private final int port;
+    private final int roomSize;
+    private final int waitSeconds;
+    private final int[] defaultRange;
+    private final SpectatorHub spectators = new SpectatorHub();
+    private final RateLimiter limiter = RateLimiter.defaults();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final AtomicLong gamesFinished = new AtomicLong();
+    // forming rooms by "low:high"; guarded by this
+    private final Map<String, Lobby> forming = new HashMap<>();
+    private final Set<Lobby> running = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Matchmaker-Timer");
+        t.setDaemon(true);
+        return t;
+    });
+    private NetworkServer.ResultListener resultListener;
+    private int spectatorPort = 0;
+    private volatile ServerSocket serverSocket;
+
+    public Matchmaker(int port, int roomSize, int waitSeconds, int[] defaultRange) {
+        this.port = port;
+        this.roomSize = Math.max(1, roomSize);
+        this.waitSeconds = Math.max(0, waitSeconds);
+        this.defaultRange = defaultRange;
+    }
+
+    public void setResultListener(NetworkServer.ResultListener resultListener) {
+        this.resultListener = resultListener;
+    }
+
+    // one port for every room; the ids in the events are unique across rooms
+    public void setSpectatorPort(int spectatorPort) {
+        this.spectatorPort = spectatorPort;
+    }
+
+    public void start() throws IOException {
+        start(new Scanner(System.in));
+    }
+
+    // a null scanner runs without a console
+    public void start(Scanner consoleScanner) throws IOException {
+        ServerSocket ss = new ServerSocket();
+        ss.setReuseAddress(true);
+        ss.bind(new InetSocketAddress(port));
+        serverSocket = ss;
+        if (spectatorPort > 0) {
+            spectators.listen(spectatorPort, defaultRange[0], defaultRange[1]);
+        }
+        System.out.println("Matchmaking on port " + port + ": rooms of " + roomSize + ", starting after at most "
+                + waitSeconds + "s, default range " + defaultRange[0] + "-" + defaultRange[1] + ".");
+
+        if (consoleScanner != null) {
+            Thread console = new Thread(() -> console(consoleScanner), "Matchmaker-Console");
+            console.setDaemon(true);
+            console.start();
+        }
+
+        try {
+            while (!ss.isClosed()) {
+                Socket client;
+                try {
+                    client = ss.accept();
+                } catch (SocketException e) {
+                    break;
+                }
+                Thread intake = new Thread(() -> intake(client), "Intake");
+                intake.setDaemon(true);
+                intake.start();
+            }
+        } finally {
+            stop();
+        }
+    }
+
+    // stops accepting, sends queued players home and disconnects running games
+    public void stop() {
+        ServerSocket ss = serverSocket;
+        if (ss != null) {
+            try {
+                ss.close();
+            } catch (IOException ignored) {
+            }
+        }
+        timer.shutdownNow();
+        synchronized (this) {
+            for (Lobby l : forming.values()) {
+                l.room.dismissWaiting();
+                l.room.closeAll();
+            }
+            forming.clear();
+        }
+        for (Lobby l : running) {
+            l.room.closeAll();
+        }
+        running.clear();
+        spectators.close();
+    }
+
+    private void intake(Socket client) {
+        String firstLine = null;
+        try {
+            client.setSoTimeout(INTAKE_PEEK_MS);
+            firstLine = NetworkServer.readRawLine(client.getInputStream());
+        } catch (SocketTimeoutException ignored) {
+        } catch (IOException e) {
+            NetworkServer.reject(client, null);
+            return;
+        } finally {
+            try { client.setSoTimeout(0); } catch (SocketException ignored) {}
+        }
+
+        if (firstLine != null && firstLine.startsWith("RESUME:")) {
+            resume(client, firstLine.substring(7).trim());
+        } else if (firstLine != null && firstLine.startsWith("QUEUE:")) {
+            int[] range;
+            try {
+                range = LaunchOptions.parseRange(firstLine.substring(6));
+            } catch (IllegalArgumentException e) {
+                NetworkServer.reject(client, "BAD_RANGE");
+                return;
+            }
+            enqueue(client, range, null);
+        } else {
+            enqueue(client, defaultRange, firstLine);
+        }
+    }
+
+    private void enqueue(Socket client, int[] range, String firstLine) {
+        int position = join(client, range, firstLine);
+        if (position < 0) {
+            NetworkServer.reject(client, "FULL");
+        } else if (position > 0) {
+            // outside the lock: a client that does not read must not hold up intake, the timer
+            // or the other rooms
+            try {
+                LineIO.writer(client.getOutputStream()).println("QUEUED:" + position + ":" + roomSize);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // Adds the player to the forming room for its range and returns its place in the queue,
+    // 0 if it filled the room and the game started, or -1 once the matchmaker stopped.
+    private synchronized int join(Socket client, int[] range, String firstLine) {
+        if (timer.isShutdown()) return -1;
+        String key = range[0] + ":" + range[1];
+        Lobby lobby = forming.get(key);
+        if (lobby == null) {
+            lobby = new Lobby(key, range);
+            forming.put(key, lobby);
+            Lobby l = lobby;
+            lobby.timeout = timer.schedule(() -> launch(l), waitSeconds, TimeUnit.SECONDS);
+        }
+
+        int id = nextId.getAndIncrement();
+        SessionInfo info = new SessionInfo(id, client);
+        if (firstLine != null && firstLine.startsWith("NICK:") && !firstLine.substring(5).trim().isEmpty()) {
+            info.nickname = firstLine.substring(5).trim();
+        }
+        lobby.room.sessions.add(info);
+        lobby.players++;
+        NetworkServer.recordAccepted(info, port, false);
+        if (lobby.players < roomSize) return lobby.players;
+        launch(lobby);
+        return 0;
+    }
+
+    private synchronized void launch(Lobby lobby) {
+        if (!forming.remove(lobby.key, lobby)) return;
+        lobby.timeout.cancel(false);
+        running.add(lobby);
+        lobby.room.startWaiting();
+        System.out.println("Room " + lobby.key + " started with " + lobby.players + " players (" + running.size() + " running).");
+        lobby.watch = timer.scheduleWithFixedDelay(() -> reap(lobby), 1, 1, TimeUnit.SECONDS);
+    }
+
+    // a room is done once everyone finished and nobody can still come back
+    private void reap(Lobby lobby) {
+        GameRoom room = lobby.room;
+        if (!room.allFinished() || !room.resumes.isEmpty()) return;
+        room.sendRankingIfDone();
+        room.closeAll();
+        lobby.watch.cancel(false);
+        running.remove(lobby);
+        gamesFinished.incrementAndGet();
+    }
+
+    private void resume(Socket client, String token) {
+        for (Lobby l : running) {
+            SessionInfo info = l.room.resume(client, token);
+            if (info != null) {
+                NetworkServer.recordAccepted(info, port, true);
+                System.out.println(GameRoom.nick(info) + " reconnected to room " + l.key);
+                return;
+            }
+        }
+        NetworkServer.reject(client, "RESUME_FAILED");
+    }
+
+    private void console(Scanner scanner) {
+        System.out.println("Matchmaker commands: rooms, quit");
+        while (!serverSocket.isClosed() && scanner.hasNextLine()) {
+            String cmd = scanner.nextLine().trim().toLowerCase(Locale.ROOT);
+            switch (cmd) {
+                case "" -> { }
+                case "rooms" -> printRooms();
+                case "quit" -> {
+                    stop();
+                    return;
+                }
+                default -> System.out.println("Unknown command.");
+            }
+        }
+    }
+
+    private void printRooms() {
+        synchronized (this) {
+            for (Lobby l : forming.values()) {
+                System.out.printf("forming %s players=%d/%d%n", l.key, l.players, roomSize);
+            }
+        }
+        for (Lobby l : running) {
+            System.out.printf("running %s players=%d playing=%d%n", l.key, l.players, l.room.sessions.playingCount());
+        }
+        System.out.println("finished games=" + gamesFinished.get());
+    }
+
+    private final class Lobby {
+        final String key;
+        final GameRoom room;
+        int players = 0;
+        ScheduledFuture<?> timeout;
+        volatile ScheduledFuture<?> watch;
+
+        Lobby(String key, int[] range) {
+            this.key = key;
+            this.room = new GameRoom(range[0], range[1], spectators, RESUME_GRACE_SECONDS, resultListener, limiter, 0,
+                    BOT_THINK_MS);
+        }
+    }
+
+    // for tests
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int roomSize = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int waitSeconds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        new Matchmaker(port, roomSize, waitSeconds, new int[]{0, 100}).start();
+    }
+}
@@ -3,147 +3,482 @@ package nkodem.numguesser.network;
 
 import java.io.*;
 import java.net.*;
-import java.util.Scanner;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import nkodem.numguesser.ConsoleInput;
 
 public class NetworkClient {
-    private final String host;
-    private final int port;
+    private String host;
+    private int port;
     private static final int WAIT_TIMEOUT_MS = 30_000;
+    private static final int INPUT_POLL_MS = 50;
+    private static final int RESUME_ATTEMPTS = 10;
+    private static final int RESUME_RETRY_MS = 1000;
+    private static final int SLOW_BACKOFF_MS = 100;
+
+    private boolean autoPlay = false;
+    private boolean quiet = false;
+    private String nickname;
+    private String queue;
+    private boolean datagrams = false;
+
+    // both the socket reader and the console reader only produce events; all game state
+    // is touched by the thread running start()
+    private final BlockingQueue<Event> events = new LinkedBlockingQueue<>();
+    private volatile boolean done = false;
+    private Socket socket;
+    private UdpLink link;
+    private int generation = 0;
+    private PrintWriter out;
+    private String resumeToken;
+    // attempts used by the current resume, a refused RESUME included
+    private int resumeAttempt = 0;
+    private boolean started = false;
+    private boolean waiting = false;
+    private boolean inRanking = false;
+    // console lines that came before START, e.g. from a script; played one per turn once it comes
+    private final List<String> early = new ArrayList<>();
+    private int low;
+    private int high;
+    private int lastGuess;
+    private int guesses = 0;
+    private boolean guessedCorrect = false;
 
     public NetworkClient(String host, int port) {
         this.host = host;
         this.port = port;
     }
 
+    // plays by bisection without reading the console
+    public void setAutoPlay(boolean autoPlay) {
+        this.autoPlay = autoPlay;
+    }
+
+    // no console output; for scripted runs with many clients
+    public void setQuiet(boolean quiet) {
+        this.quiet = quiet;
+    }
+
+    public void setNickname(String nickname) {
+        this.nickname = nickname;
+    }
+
+    // range or difficulty asked of a matchmaking server, e.g. "easy" or "1:500"
+    public void setQueue(String queue) {
+        this.queue = queue;
+    }
+
+    // plays over UDP instead of TCP; the server must have been started with UDP on
+    public void setDatagrams(boolean datagrams) {
+        this.datagrams = datagrams;
+    }
+
+    public int getGuesses() {
+        return guesses;
+    }
+
+    public boolean hasGuessedCorrect() {
+        return guessedCorrect;
+    }
+
     public void start() throws IOException {
-        Scanner scanner = new Scanner(System.in);
-        try (Socket socket = new Socket(host, port);
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
-
-            System.out.println("Connected to " + host + ":" + port);
-            String serverLine = in.readLine();
-            if (serverLine == null || !serverLine.startsWith("START:")) {
-                System.out.println("Protocol error or server closed.");
-                return;
+        start(new ConsoleInput(System.in));
+    }
+
+    // a null console plays without reading input, as auto-play does
+    public void start(ConsoleInput console) throws IOException {
+        Thread input = null;
+        try {
+            connect();
+            say("Connected to " + host + ":" + port);
+            if (queue != null && !queue.isEmpty()) {
+                out.println("QUEUE:" + queue);
+            }
+            if (nickname != null && !nickname.isEmpty()) {
+                out.println("NICK:" + nickname);
+            } else if (link != null) {
+                // a UDP server only learns about us from our first request
+                out.println("HELLO");
             }
-            String[] parts = serverLine.split(":");
-            int low = Integer.parseInt(parts[1]);
-            int high = Integer.parseInt(parts[2]);
-            System.out.println("Game started. Guess a number between " + low + " and " + high);
 
-            boolean waiting = false;
-            boolean done = false;
+            if (!autoPlay && console != null) {
+                input = new Thread(() -> readConsole(console), "Client-Input");
+                input.setDaemon(true);
+                input.start();
+            }
 
             while (!done) {
-                if (!waiting) {
-                    try { socket.setSoTimeout(0); } catch (SocketException ignored) {}
-
-                    System.out.print("Your guess (or 'q' to quit): ");
-                    String input;
-                    try {
-                        input = scanner.nextLine().trim();
-                    } catch (Exception e) {
-                        break;
-                    }
-                    if (input.equalsIgnoreCase("q")) {
-                        out.println("QUIT");
-                        break;
-                    }
-                    try {
-                        int guess = Integer.parseInt(input);
-                        out.println("GUESS:" + guess);
-                    } catch (NumberFormatException e) {
-                        System.out.println("Enter a valid integer.");
-                        continue;
-                    }
+                Event event;
+                try {
+                    event = waiting ? events.poll(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS) : events.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                if (event == null) {
+                    say("No response from server for " + (WAIT_TIMEOUT_MS/1000) + "s. Server may have crashed. Exiting.");
+                    break;
+                }
+                if (event.fromServer) {
+                    // lines and EOF from a connection we already replaced
+                    if (event.generation != generation) continue;
+                    handleServer(event.line);
                 } else {
-                    try { socket.setSoTimeout(WAIT_TIMEOUT_MS); } catch (SocketException ignored) {}
+                    handleInput(event.line);
                 }
-
-                String response;
+            }
+        } finally {
+            done = true;
+            closeSocket();
+            // the caller reads the same console next; wait for the input thread to let go of it
+            if (input != null) {
                 try {
-                    response = in.readLine();
-                } catch (SocketTimeoutException ste) {
-                    System.out.println("No response from server for " + (WAIT_TIMEOUT_MS/1000) + "s. Server may have crashed. Exiting.");
-                    break;
+                    input.join(INPUT_POLL_MS * 4);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                // scripted lines the game never got to belong to whatever reads next
+                List<String> unused = new ArrayList<>();
+                for (String line : early) {
+                    if (line == null) break;
+                    unused.add(line);
                 }
+                console.giveBack(unused);
+            }
+        }
+    }
 
-                if (response == null) {
-                    System.out.println("Server disconnected.");
-                    break;
+    private void connect() throws IOException {
+        if (datagrams) {
+            UdpLink l = new UdpLink(host, port);
+            link = l;
+            out = l.writer();
+            int gen = ++generation;
+            Thread reader = new Thread(() -> {
+                l.receive(line -> events.offer(new Event(gen, line)));
+                events.offer(new Event(gen, null));
+            }, "Client-Reader");
+            reader.setDaemon(true);
+            reader.start();
+            return;
+        }
+        Socket s = new Socket(host, port);
+        s.setTcpNoDelay(true);
+        BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+        socket = s;
+        out = new PrintWriter(s.getOutputStream(), true);
+
+        int gen = ++generation;
+        Thread reader = new Thread(() -> readServer(in, gen), "Client-Reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void closeSocket() {
+        if (link != null) link.close();
+        try {
+            if (socket != null) socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void readServer(BufferedReader in, int gen) {
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                events.offer(new Event(gen, line));
+            }
+        } catch (IOException ignored) {
+        }
+        events.offer(new Event(gen, null));
+    }
+
+    // a cluster front door hands out the node that should host us
+    private void redirect(String target) {
+        int sep = target.lastIndexOf(':');
+        closeSocket();
+        try {
+            host = target.substring(0, sep);
+            port = Integer.parseInt(target.substring(sep + 1));
+            connect();
+            say("Redirected to " + host + ":" + port);
+            if (nickname != null && !nickname.isEmpty()) {
+                out.println("NICK:" + nickname);
+            }
+        } catch (IOException | RuntimeException e) {
+            say("Redirect to " + target + " failed: " + e.getMessage());
+            done = true;
+        }
+    }
+
+    // the server keeps a dropped mid-game session for a grace period; reattach to it with the token
+    private boolean tryResume() {
+        resumeAttempt = 0;
+        return retryResume();
+    }
+
+    // RESUME_FAILED may only mean the server has not noticed the old connection drop yet, so
+    // a refusal uses up an attempt like a failed connect does
+    private boolean retryResume() {
+        closeSocket();
+        while (++resumeAttempt <= RESUME_ATTEMPTS) {
+            int attempt = resumeAttempt;
+            try {
+                Thread.sleep(RESUME_RETRY_MS);
+                connect();
+                out.println("RESUME:" + resumeToken);
+                return true;
+            } catch (IOException e) {
+                say("Reconnect attempt " + attempt + " failed: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    // Polls so the thread can stop once the game is over instead of swallowing the next menu
+    // line. ready() covers lines the console has already buffered, so piped input is not lost.
+    private void readConsole(ConsoleInput console) {
+        try {
+            while (!done) {
+                if (console.ready()) {
+                    String line = console.readLine();
+                    events.offer(new Event(-1, line == null ? null : line.trim()));
+                    if (line == null) return;
+                } else {
+                    Thread.sleep(INPUT_POLL_MS);
                 }
+            }
+        } catch (Exception e) {
+            if (!done) events.offer(new Event(-1, null));
+        }
+    }
 
-                if (response.startsWith("RESULT:")) {
-                    String res = response.substring(7);
-                    switch (res) {
-                        case "LOW" -> System.out.println("Too low.");
-                        case "HIGH" -> System.out.println("Too high.");
-                        case "CORRECT" -> {
-                            System.out.println("Correct! Waiting for other players...");
-                            waiting = true;
-                            try { socket.setSoTimeout(WAIT_TIMEOUT_MS); } catch (SocketException ignored) {}
-                        }
-                        default -> System.out.println("Server response: " + res);
-                    }
-                } else if (response.equals("WAIT")) {
-                    System.out.println("Waiting for remaining players...");
-                    waiting = true;
-                    try { socket.setSoTimeout(WAIT_TIMEOUT_MS); } catch (SocketException ignored) {}
-                } else if (response.equals("RANKING_START")) {
+    private void handleInput(String input) {
+        if (!started && (input == null || !input.equalsIgnoreCase("q"))) {
+            early.add(input);
+            say("Game has not started yet. Waiting for host...");
+            return;
+        }
+        if (input == null || input.equalsIgnoreCase("q")) {
+            out.println("QUIT");
+            done = true;
+            return;
+        }
+        if (waiting) {
+            say("Waiting for remaining players... ('q' to quit)");
+            return;
+        }
+        if (input.equalsIgnoreCase("rank")) {
+            out.println("RANK");
+            return;
+        }
+        try {
+            int guess = Integer.parseInt(input);
+            lastGuess = guess;
+            out.println("GUESS:" + guess);
+        } catch (NumberFormatException e) {
+            say("Enter a valid integer.");
+            prompt();
+        }
+    }
+
+    private void handleServer(String response) {
+        if (response == null) {
+            if (done) return;
+            if (started && !waiting && resumeToken != null) {
+                say("Connection lost. Trying to resume...");
+                if (tryResume()) return;
+            }
+            say(inRanking ? "Server disconnected while sending ranking." : "Server disconnected.");
+            done = true;
+            return;
+        }
 
-                    try { socket.setSoTimeout(0); } catch (SocketException ignored) {}
-                    System.out.println("\n--- Ranking ---");
-                    while (true) {
-                        String rankLine;
+        if (inRanking) {
+            handleRankingLine(response);
+        } else if (response.startsWith("START:")) {
+            String[] parts = response.split(":");
+            low = Integer.parseInt(parts[1]);
+            high = Integer.parseInt(parts[2]);
+            started = true;
+            say("Game started. Guess a number between " + low + " and " + high);
+            nextGuess();
+        } else if (response.startsWith("REDIRECT:")) {
+            redirect(response.substring(9));
+        } else if (response.startsWith("TOKEN:")) {
+            resumeToken = response.substring(6).trim();
+        } else if (response.startsWith("RESUMED:")) {
+            String[] parts = response.split(":");
+            guesses = Integer.parseInt(parts[3]);
+            say("Resumed game after " + guesses + " guesses.");
+            nextGuess();
+        } else if (response.equals("RESUME_FAILED")) {
+            if (resumeAttempt < RESUME_ATTEMPTS) {
+                say("Resume attempt " + resumeAttempt + " was refused, retrying...");
+                if (retryResume()) return;
+            }
+            say("Server no longer holds this game.");
+            done = true;
+        } else if (response.startsWith("QUEUED:")) {
+            String[] parts = response.split(":");
+            say("In the queue (" + parts[1] + "/" + parts[2] + "), the game starts when the room fills or the wait is over.");
+        } else if (response.equals("BAD_RANGE")) {
+            say("The server does not accept that range.");
+            done = true;
+        } else if (response.equals("FULL")) {
+            say("Server is full.");
+            done = true;
+        } else if (response.startsWith("RESULT:")) {
+            String res = response.substring(7);
+            switch (res) {
+                case "LOW" -> {
+                    guesses++;
+                    low = Math.max(low, lastGuess + 1);
+                    say("Too low.");
+                    nextGuess();
+                }
+                case "HIGH" -> {
+                    guesses++;
+                    high = Math.min(high, lastGuess - 1);
+                    say("Too high.");
+                    nextGuess();
+                }
+                case "SLOW" -> {
+                    say("Slow down, the server dropped that guess.");
+                    if (autoPlay) {
                         try {
-                            rankLine = in.readLine();
-                        } catch (SocketTimeoutException ste) {
-                            System.out.println("Server stopped responding while sending ranking. Exiting.");
-                            done = true;
-                            break;
-                        }
-                        if (rankLine == null) {
-                            System.out.println("Server disconnected while sending ranking.");
-                            done = true;
-                            break;
-                        }
-                        if (rankLine.equals("RANKING_END")) {
-                            break;
-                        }
-                        if (rankLine.startsWith("RANK:")) {
-                            String[] rparts = rankLine.split(":", 4);
-                            if (rparts.length >= 4) {
-                                String pos = rparts[1];
-                                String nick = rparts[2];
-                                String result = rparts[3];
-                                if ("-".equals(result)) {
-                                    System.out.printf("%s) %s - did not guess%n", pos, nick);
-                                } else {
-                                    System.out.printf("%s) %s - %s guesses%n", pos, nick, result);
-                                }
-                            } else {
-                                System.out.println(rankLine);
-                            }
-                        } else {
-                            System.out.println(rankLine);
+                            Thread.sleep(SLOW_BACKOFF_MS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
                         }
                     }
-                    System.out.println("--- End ranking ---\n");
-                } else if (response.equals("BYE")) {
-                    System.out.println("Server ended the game.");
-                    break;
+                    nextGuess();
+                }
+                case "CORRECT" -> {
+                    guesses++;
+                    guessedCorrect = true;
+                    say("Correct! Waiting for other players...");
+                    waiting = true;
+                }
+                default -> {
+                    say("Server response: " + res);
+                    nextGuess();
+                }
+            }
+        } else if (response.startsWith("RACE:")) {
+            say("Race mode: " + response.substring(5) + "s left, fastest solver wins.");
+        } else if (response.startsWith("LEADER:")) {
+            String[] parts = response.split(":");
+            say("[" + parts[1] + "s left] " + parts[2] + " of " + parts[3] + " solved");
+        } else if (response.startsWith("TOP:")) {
+            String[] parts = response.split(":", 5);
+            sayf("  %s) %s - %.1fs, %s guesses%n", parts[1], parts[4], Long.parseLong(parts[2]) / 1000.0, parts[3]);
+        } else if (response.equals("TIMEUP")) {
+            say("Time is up!");
+            waiting = true;
+        } else if (response.startsWith("STANDING:")) {
+            String[] parts = response.split(":");
+            say("Provisional rank " + parts[1] + " of " + parts[2] + " (" + parts[3] + " solved so far).");
+            prompt();
+        } else if (response.equals("WAIT")) {
+            say("Waiting for remaining players...");
+            waiting = true;
+        } else if (response.equals("RANKING_START")) {
+            say("\n--- Ranking ---");
+            inRanking = true;
+        } else if (response.equals("BYE")) {
+            say("Server ended the game.");
+            done = true;
+        } else {
+            say("Unknown server message: " + response);
+        }
+    }
+
+    private void handleRankingLine(String rankLine) {
+        if (rankLine.equals("RANKING_END")) {
+            say("--- End ranking ---\n");
+            inRanking = false;
+            return;
+        }
+        if (rankLine.startsWith("RANK:")) {
+            String[] rparts = rankLine.split(":", 4);
+            if (rparts.length >= 4) {
+                String pos = rparts[1];
+                String nick = rparts[2];
+                String result = rparts[3];
+                if ("-".equals(result)) {
+                    sayf("%s) %s - did not guess%n", pos, nick);
                 } else {
-                    System.out.println("Unknown server message: " + response);
+                    sayf("%s) %s - %s guesses%n", pos, nick, result);
                 }
+                return;
             }
         }
+        say(rankLine);
+    }
+
+    private void nextGuess() {
+        if (!autoPlay) {
+            prompt();
+            if (!early.isEmpty()) handleInput(early.remove(0));
+            return;
+        }
+        if (low > high) {
+            say("Range exhausted, giving up.");
+            out.println("QUIT");
+            done = true;
+            return;
+        }
+        lastGuess = low + (high - low) / 2;
+        out.println("GUESS:" + lastGuess);
+    }
+
+    private void prompt() {
+        sayInline("Your guess ('rank' for standings, 'q' to quit): ");
+    }
+
+    private void say(String message) {
+        if (!quiet) System.out.println(message);
+    }
+
+    private void sayInline(String message) {
+        if (!quiet) System.out.print(message);
+    }
+
+    private void sayf(String format, Object... args) {
+        if (!quiet) System.out.printf(format, args);
+    }
+
+    // generation -1 marks console input, anything else the connection that produced the line
+    private static final class Event {
+        final boolean fromServer;
+        final int generation;
+        final String line;
+
+        Event(int generation, String line) {
+            this.fromServer = generation >= 0;
+            this.generation = generation;
+            this.line = line;
+        }
     }
 
     // for tests
     public static void main(String[] args) throws IOException {
-        String host = args.length > 0 ? args[0] : "localhost";
-        int port = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
-        new NetworkClient(host, port).start();
+        boolean auto = args.length > 0 && args[0].equals("--auto");
+        int offset = auto ? 1 : 0;
+        String host = args.length > offset ? args[offset] : "localhost";
+        int port = args.length > offset + 1 ? Integer.parseInt(args[offset + 1]) : 5000;
+        NetworkClient client = new NetworkClient(host, port);
+        client.setAutoPlay(auto);
+        if (args.length > offset + 2) client.setNickname(args[offset + 2]);
+        if (args.length > offset + 3) client.setQueue(args[offset + 3]);
+        client.start();
     }
 }
@@ -2,16 +2,62 @@ package nkodem.numguesser.network;
 
 import java.io.*;
 import java.net.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import nkodem.numguesser.jfr.ConnectionAcceptedEvent;
+import nkodem.numguesser.jfr.GameFinishedEvent;
+import nkodem.numguesser.jfr.NickHandshakeEvent;
+
 public class NetworkServer {
     private final int port;
     private final int low;
     private final int high;
     private final int maxPlayers;
-    private static final AtomicBoolean rankingSent = new AtomicBoolean(false);
+    private static final int RESUME_PEEK_MS = 300;
+    private static final int SHUTDOWN_GRACE_MS = 5000;
+    private static final int SPECTATOR_FLUSH_MS = 1000;
+    private final SpectatorHub spectators = new SpectatorHub();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final AtomicInteger joined = new AtomicInteger(0);
+    private int spectatorPort = 0;
+    private int resumeGraceSeconds = 60;
+    private int raceSeconds = 0;
+    private int botCount = 0;
+    private int botThinkMs = 500;
+    private boolean datagrams = false;
+    private Path checkpointFile;
+    private int checkpointMs = 2000;
+    private volatile Checkpointer checkpointer;
+    private boolean autoStart = false;
+    private int startTimeoutSeconds = 0;
+    // System.nanoTime() of the first join, 0 before it
+    private volatile long firstJoinNanos = 0;
+    private ResultListener resultListener;
+    private LoadListener loadListener;
+    private RateLimiter rateLimiter = RateLimiter.defaults();
+    private volatile ServerSocket serverSocket;
+    private volatile GameRoom room;
+    // System.nanoTime() after which start() stops waiting for handlers; 0 while running normally
+    private volatile long shutdownDeadline = 0;
+    private volatile boolean stopping = false;
+    private volatile boolean terminated = false;
+
+    // notified once per game with the final standings, best first
+    public interface ResultListener {
+        void onRanking(List<SessionInfo> ranking);
+    }
+
+    // notified with the number of players the room counts against maxPlayers after each join;
+    // an auto-started game takes nobody else, so it reports maxPlayers once it starts
+    public interface LoadListener {
+        void onLoad(int players);
+    }
 
     public NetworkServer(int port, int low, int high, int maxPlayers) {
         this.port = port;
@@ -20,55 +66,147 @@ public class NetworkServer {
         this.maxPlayers = Math.max(1, maxPlayers);
     }
 
-    public void start() throws IOException {
-        start(new Scanner(System.in));
+    // 0 disables the spectator stream
+    public void setSpectatorPort(int spectatorPort) {
+        this.spectatorPort = spectatorPort;
     }
 
-    public void start(Scanner consoleScanner) throws IOException {
-        ServerSocket serverSocket = new ServerSocket(port);
-        List<Thread> handlers = Collections.synchronizedList(new ArrayList<>());
-        List<SessionInfo> sessions = Collections.synchronizedList(new ArrayList<>());
-        AtomicInteger nextId = new AtomicInteger(1);
+    // how long a dropped player's session is kept for RESUME; 0 disables resumption
+    public void setResumeGraceSeconds(int resumeGraceSeconds) {
+        this.resumeGraceSeconds = resumeGraceSeconds;
+    }
 
-        System.out.println("Waiting for up to " + maxPlayers + " players on port " + port + "...");
+    // race mode: the round ends this many seconds after it starts, ranked by time to solve;
+    // 0 plays without a clock
+    public void setRaceSeconds(int raceSeconds) {
+        this.raceSeconds = Math.max(0, raceSeconds);
+    }
 
-        HostController hostController = new HostController(sessions, handlers, serverSocket, consoleScanner, low, high);
-        Thread hostThread = new Thread(hostController, "Host-Controller");
-        hostThread.setDaemon(true);
-        hostThread.start();
-        System.out.println("Host console available. Type commands in server console.");
+    // bots that join when the server starts; they do not take player slots
+    public void setBots(int botCount) {
+        this.botCount = Math.max(0, botCount);
+    }
 
+    // average delay between two guesses of a bot
+    public void setBotThinkMs(int botThinkMs) {
+        this.botThinkMs = Math.max(0, botThinkMs);
+    }
 
-        try {
-            for (int i = 0; i < maxPlayers; i++) {
-                try {
-                    Socket client = serverSocket.accept();
-                    System.out.println("Client connected: " + client.getRemoteSocketAddress());
+    // also take players over UDP on the same port number; TCP is always on
+    public void setDatagrams(boolean datagrams) {
+        this.datagrams = datagrams;
+    }
 
-                    int id = nextId.getAndIncrement();
+    // Snapshots the game to this file every intervalMs and, on start, resumes the game found
+    // there. null switches checkpointing off.
+    public void setCheckpoint(String file, int intervalMs) {
+        this.checkpointFile = file == null ? null : Paths.get(file);
+        this.checkpointMs = intervalMs;
+    }
 
-                    SessionInfo info = new SessionInfo(id, client);
-                    info.nickname = "player-" + id;
-                    synchronized (sessions) {
-                        sessions.add(info);
-                        sessions.notifyAll();
-                    }
+    // start the game as soon as maxPlayers have joined instead of waiting for the host
+    public void setAutoStart(boolean autoStart) {
+        this.autoStart = autoStart;
+    }
 
-                    System.out.println(info.nickname + " dołączono!");
+    // with auto-start, starts whoever has joined this many seconds after the first player
+    // instead of waiting for a full room forever; 0 waits
+    public void setStartTimeout(int seconds) {
+        this.startTimeoutSeconds = Math.max(0, seconds);
+    }
 
-                } catch (SocketException se) {
-                    System.out.println("No longer accepting connections: " + se.getMessage());
-                    break;
-                }
-            }
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter == null ? RateLimiter.unlimited() : rateLimiter;
+    }
 
-            System.out.println("Reached max players or stopped accepting. Waiting for host to start games...");
+    public void setResultListener(ResultListener resultListener) {
+        this.resultListener = resultListener;
+    }
 
+    public void setLoadListener(LoadListener loadListener) {
+        this.loadListener = loadListener;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getMaxPlayers() {
+        return maxPlayers;
+    }
+
+    public int getJoinedPlayers() {
+        return joined.get();
+    }
+
+    public void start() throws IOException {
+        start(new Scanner(System.in));
+    }
+
+    // a null scanner runs the server without a host console
+    public void start(Scanner consoleScanner) throws IOException {
+        ServerSocket serverSocket = new ServerSocket();
+        // a node reopens the same port for its next game while old connections sit in TIME_WAIT
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(port));
+        this.serverSocket = serverSocket;
+        if (stopping) {
+            // stop() or drain() raced with start-up
+            serverSocket.close();
+            return;
+        }
+        GameRoom room = new GameRoom(low, high, spectators, resumeGraceSeconds, resultListener, rateLimiter, raceSeconds,
+                botThinkMs);
+        this.room = room;
+        SessionRegistry sessions = room.sessions;
+        List<Thread> handlers = room.handlers;
+
+        System.out.println("Waiting for up to " + maxPlayers + " players on port " + port + "...");
+        if (spectatorPort > 0) {
+            spectators.listen(spectatorPort, low, high);
+        }
+        if (checkpointFile != null) {
+            recover(room);
+            Checkpointer c = new Checkpointer(checkpointFile, checkpointMs);
+            c.start(room, nextId::get);
+            checkpointer = c;
+        }
+        if (botCount > 0) addBots(botCount);
+        if (datagrams) {
+            UdpGateway gateway = new UdpGateway(this, room, port);
+            room.udp = gateway;
+            gateway.start();
+        }
+
+        Thread hostThread = null;
+        if (consoleScanner != null) {
+            HostController hostController = new HostController(room, this, consoleScanner);
+            hostThread = new Thread(hostController, "Host-Controller");
+            hostThread.setDaemon(true);
+            hostThread.start();
+            System.out.println("Host console available. Type commands in server console.");
+        }
+
+        // keeps accepting after the room is full so dropped players can reconnect
+        Thread acceptor = new Thread(() -> acceptLoop(serverSocket, room), "Acceptor-" + port);
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        try {
             // Wait until host starts
             synchronized (sessions) {
-                while (handlers.isEmpty() && !serverSocket.isClosed()) {
+                while (handlers.isEmpty() && !sessions.anyStarted() && !serverSocket.isClosed()) {
                     try {
-                        sessions.wait();
+                        if (autoStart && startTimeoutSeconds > 0) {
+                            long leftMs = startTimeoutLeftMs();
+                            if (leftMs <= 0) {
+                                startOnTimeout(room);
+                                continue;
+                            }
+                            sessions.wait(leftMs);
+                        } else {
+                            sessions.wait();
+                        }
                     } catch (InterruptedException e) {
                         Thread.currentThread().interrupt();
                         break;
@@ -76,46 +214,368 @@ public class NetworkServer {
                 }
             }
 
-            for (Thread t : handlers) {
+            // handlers of resumed sessions are appended while we wait, so walk the list by index
+            int joinedHandlers = 0;
+            boolean interrupted = false;
+            while (!interrupted) {
+                Thread next;
+                synchronized (sessions) {
+                    while (joinedHandlers >= handlers.size() && !room.resumes.isEmpty()) {
+                        try {
+                            sessions.wait(1000);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            interrupted = true;
+                            break;
+                        }
+                    }
+                    if (interrupted || joinedHandlers >= handlers.size()) break;
+                    next = handlers.get(joinedHandlers++);
+                }
                 try {
-                    t.join();
+                    if (!joinBounded(next)) {
+                        System.out.println("Handlers still running after shutdown deadline; abandoning them.");
+                        break;
+                    }
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                     System.out.println("Server interrupted while waiting for players to finish.");
+                    interrupted = true;
                 }
             }
 
+            // bots have no handler thread to join; wait for their game the same bounded way
+            while (!interrupted && !room.awaitAllFinished(System.nanoTime() + TimeUnit.SECONDS.toNanos(1))) {
+                long deadline = shutdownDeadline;
+                if (deadline != 0 && deadline - System.nanoTime() <= 0) break;
+            }
+            if (room.allFinished()) room.awaitAndSendRanking();
+
             System.out.println("All player sessions ended. Server shutting down.");
         } finally {
             try {
                 serverSocket.close();
             } catch (IOException ignored) {
             }
+            // the port is only released once the acceptor has left accept()
+            try {
+                acceptor.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            room.resumes.close();
+            room.bots.shutdown();
+            if (room.udp != null) room.udp.close();
+            spectators.close();
+            discardCheckpoint();
             if (hostThread != null && hostThread.isAlive()) {
                 hostThread.interrupt();
             }
+            terminated = true;
+        }
+    }
+
+    // time left before a room that is not full starts anyway; polled once a second before the first join
+    private long startTimeoutLeftMs() {
+        long first = firstJoinNanos;
+        if (first == 0) return 1000;
+        long left = first + TimeUnit.SECONDS.toNanos(startTimeoutSeconds) - System.nanoTime();
+        return left <= 0 ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(left));
+    }
+
+    // caller holds the sessions monitor
+    private void startOnTimeout(GameRoom room) {
+        System.out.println("Start timeout reached with " + joined.get() + " of " + maxPlayers + " players. Starting game.");
+        if (room.startWaiting() == 0) {
+            // everybody who joined has left again; wait for a new first player
+            firstJoinNanos = 0;
+            return;
+        }
+        if (loadListener != null) loadListener.onLoad(maxPlayers);
+    }
+
+    // false once a shutdown deadline has passed with the thread still alive
+    private boolean joinBounded(Thread t) throws InterruptedException {
+        while (t.isAlive()) {
+            long deadline = shutdownDeadline;
+            if (deadline == 0) {
+                t.join(1000);
+                continue;
+            }
+            long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMs <= 0) return false;
+            t.join(Math.min(remainingMs, 1000));
+        }
+        return true;
+    }
+
+    // stops accepting and disconnects every player; start() then returns within SHUTDOWN_GRACE_MS
+    public void stop() {
+        shutdownDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_GRACE_MS);
+        closeServerSocket();
+        GameRoom r = room;
+        if (r != null) r.closeAll();
+        discardCheckpoint();
+    }
+
+    // Stops accepting, lets running games finish until the deadline, then ends the rest with a
+    // partial ranking. Blocks the caller for at most about seconds + SHUTDOWN_GRACE_MS.
+    public void drain(int seconds) {
+        GameRoom r = room;
+        closeServerSocket();
+        if (r == null || terminated) return;
+        System.out.println("Draining: no new connections, running games have " + seconds + "s to finish.");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(Math.max(0, seconds));
+
+        int dropped = r.dismissWaiting();
+        if (dropped > 0) System.out.println("Sent " + dropped + " waiting players home.");
+        // with the listener closed nobody can come back, so detached sessions end now
+        r.resumes.close();
+
+        if (!r.awaitAllFinished(deadline)) {
+            System.out.println("Drain deadline reached, ending " + r.forceFinish() + " unfinished sessions.");
+        }
+        r.awaitAndSendRanking();
+
+        shutdownDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_GRACE_MS);
+        r.spectators.flush(SPECTATOR_FLUSH_MS);
+        r.closeAll();
+        discardCheckpoint();
+        System.out.println("Drain complete.");
+    }
+
+    // a game that ended on purpose must not come back on the next start
+    private void discardCheckpoint() {
+        Checkpointer c = checkpointer;
+        if (c != null) c.discard();
+    }
+
+    private void recover(GameRoom room) {
+        if (!Files.exists(checkpointFile)) return;
+        Checkpointer.Snapshot snap;
+        try {
+            snap = Checkpointer.load(checkpointFile);
+        } catch (IOException e) {
+            System.out.println("Ignoring unreadable checkpoint " + checkpointFile + ": " + e.getMessage());
+            return;
+        }
+        if (snap.low != low || snap.high != high) {
+            System.out.println("Ignoring checkpoint for range " + snap.low + "-" + snap.high + ".");
+            return;
+        }
+        nextId.set(Math.max(nextId.get(), snap.nextId));
+        int waiting = room.restore(snap.entries, snap.raceMillisLeft);
+        for (Checkpointer.Snapshot.Entry e : snap.entries) {
+            if (!e.session.isBot()) joined.incrementAndGet();
+        }
+        System.out.println("Recovered " + snap.entries.size() + " sessions from " + checkpointFile + "; "
+                + waiting + " can resume within " + resumeGraceSeconds + "s.");
+    }
+
+    // adds bots to the running room; they wait for the next start like late joiners
+    public int addBots(int count) {
+        GameRoom r = room;
+        if (r == null || stopping) return 0;
+        for (int i = 0; i < count; i++) {
+            int id = nextId.getAndIncrement();
+            SessionInfo bot = new SessionInfo(id, null, true);
+            bot.nickname = "bot-" + id;
+            r.sessions.add(bot);
+            spectators.publish("JOIN:" + id + ":" + bot.nickname);
+        }
+        System.out.println("Added " + count + " bots.");
+        return count;
+    }
+
+    private void closeServerSocket() {
+        stopping = true;
+        ServerSocket ss = serverSocket;
+        if (ss != null) {
+            try {
+                ss.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void acceptLoop(ServerSocket serverSocket, GameRoom room) {
+        while (!serverSocket.isClosed()) {
+            Socket client;
+            try {
+                client = serverSocket.accept();
+            } catch (IOException e) {
+                System.out.println("No longer accepting connections: " + e.getMessage());
+                break;
+            }
+            // Only a lobby nobody has played in yet can skip the RESUME peek. Once the game is
+            // on, a player whose entry has expired still says RESUME and must hear RESUME_FAILED.
+            if (!room.sessions.anyStarted() && room.resumes.isEmpty() && joined.get() < maxPlayers) {
+                if (!join(client, null, room)) reject(client, "FULL");
+            } else {
+                Thread intake = new Thread(() -> intake(client, room), "Intake");
+                intake.setDaemon(true);
+                intake.start();
+            }
+        }
+    }
+
+    // a reconnecting client sends RESUME:<token> right after connecting; anything else is a new player
+    private void intake(Socket client, GameRoom room) {
+        String firstLine = null;
+        try {
+            client.setSoTimeout(RESUME_PEEK_MS);
+            firstLine = readRawLine(client.getInputStream());
+        } catch (SocketTimeoutException ignored) {
+        } catch (IOException e) {
+            reject(client, null);
+            return;
+        } finally {
+            try { client.setSoTimeout(0); } catch (SocketException ignored) {}
+        }
+
+        if (firstLine != null && firstLine.startsWith("RESUME:")) {
+            resume(client, firstLine.substring(7).trim(), room);
+        } else if (!join(client, firstLine, room)) {
+            reject(client, "FULL");
+        }
+    }
+
+    private boolean join(Socket client, String firstLine, GameRoom room) {
+        return admit(client, null, firstLine, room) != null;
+    }
+
+    // A UDP player has no socket; its peer address stands in for the connection. null when
+    // the room is full or the server no longer takes players.
+    SessionInfo admit(Socket client, InetSocketAddress datagramPeer, String firstLine, GameRoom room) {
+        if (stopping) return null;
+        // an auto-started game has no later start for a late joiner to wait for
+        if (autoStart && room.sessions.anyStarted()) return null;
+        if (joined.incrementAndGet() > maxPlayers) {
+            joined.decrementAndGet();
+            return null;
+        }
+        int id = nextId.getAndIncrement();
+
+        SessionInfo info = new SessionInfo(id, client);
+        info.datagramPeer = datagramPeer;
+        System.out.println("Client connected: " + (datagramPeer != null ? "udp" : "") + info.remoteAddress());
+        // no nickname means "player-<id>"; the string is only built when printed
+        if (firstLine != null && firstLine.startsWith("NICK:") && !firstLine.substring(5).trim().isEmpty()) {
+            info.nickname = firstLine.substring(5).trim();
+        }
+        room.sessions.add(info);
+        recordAccepted(info, port, false);
+        if (firstJoinNanos == 0) firstJoinNanos = System.nanoTime();
+        if (loadListener != null) loadListener.onLoad(joined.get());
+
+        System.out.println(GameRoom.nick(info) + " dołączono!");
+        spectators.publish("JOIN:" + id + ":" + GameRoom.nick(info));
+        if (joined.get() == maxPlayers) {
+            if (autoStart) {
+                System.out.println("Reached max players. Starting game.");
+                room.startWaiting();
+            } else {
+                System.out.println("Reached max players. Waiting for host to start games...");
+            }
+        }
+        return info;
+    }
+
+    private void resume(Socket client, String token, GameRoom room) {
+        SessionInfo info = room.resume(client, token);
+        if (info == null) {
+            reject(client, "RESUME_FAILED");
+            return;
+        }
+        recordAccepted(info, port, true);
+        System.out.println(GameRoom.nick(info) + " reconnected from " + client.getRemoteSocketAddress());
+        spectators.publish("RESUME:" + info.id);
+    }
+
+    static void recordAccepted(SessionInfo info, int port, boolean resumed) {
+        ConnectionAcceptedEvent event = new ConnectionAcceptedEvent();
+        if (event.isEnabled()) {
+            event.sessionId = info.id;
+            event.remoteAddress = String.valueOf(info.remoteAddress());
+            event.port = port;
+            event.resumed = resumed;
+            event.commit();
+        }
+    }
+
+    static void reject(Socket client, String reason) {
+        try (Socket c = client) {
+            if (reason != null) {
+                PrintWriter pw = new PrintWriter(c.getOutputStream(), true);
+                pw.println(reason);
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    // byte-at-a-time so nothing past the first line is buffered away from the later handler
+    static String readRawLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (b != '\r') sb.append((char) b);
+            if (sb.length() > 256) break;
         }
+        return b == -1 && sb.length() == 0 ? null : sb.toString();
     }
 
     // Made public so external controllers (GUI/CLI) can access session info
     public static class SessionInfo {
         public final int id;
-        public final Socket socket;
-        public volatile Integer secret;
+        public volatile Socket socket;
+        public volatile String resumeToken;
+        public volatile int secret;
+        public volatile boolean secretAssigned = false;
         public volatile boolean finished = false;
         public volatile boolean started = false;
         public volatile String nickname;
 
         public volatile int guesses = 0;
         public volatile boolean guessedCorrect = false;
+        // System.nanoTime() at markStarted, and the time it took to solve
+        public volatile long startedAt;
+        public volatile long solveMillis;
         public volatile PrintWriter out = null;
+        public final boolean bot;
+        // set for players who came in over UDP; they have no socket
+        public volatile InetSocketAddress datagramPeer;
 
         public SessionInfo(int id, Socket socket) {
+            this(id, socket, false);
+        }
+
+        // bots have no connection; a player recovered from a checkpoint has none until RESUME
+        public SessionInfo(int id, Socket socket, boolean bot) {
             this.id = id;
             this.socket = socket;
+            this.bot = bot;
+        }
+
+        public boolean isBot() {
+            return bot;
+        }
+
+        public boolean isDatagram() {
+            return datagramPeer != null;
+        }
+
+        public SocketAddress remoteAddress() {
+            Socket s = socket;
+            return s != null ? s.getRemoteSocketAddress() : datagramPeer;
+        }
+
+        public void assignSecret(int secret) {
+            this.secret = secret;
+            this.secretAssigned = true;
         }
 
         public void closeSocket() {
+            if (socket == null) return;
             try {
                 socket.close();
             } catch (IOException ignored) {
@@ -123,189 +583,144 @@ public class NetworkServer {
         }
     }
 
-    private static class ClientHandler implements Runnable {
+    static class ClientHandler implements Runnable {
         private final SessionInfo info;
-        private final int low;
-        private final int high;
-        private final List<SessionInfo> sessions;
+        private final GameRoom room;
+        private final boolean resumed;
 
-        ClientHandler(SessionInfo info, int low, int high, List<SessionInfo> sessions) {
+        ClientHandler(SessionInfo info, GameRoom room, boolean resumed) {
             this.info = info;
-            this.low = low;
-            this.high = high;
-            this.sessions = sessions;
+            this.room = room;
+            this.resumed = resumed;
         }
 
         @Override
         public void run() {
             Socket client = info.socket;
-
-            try (Socket c = client;
-                 BufferedReader in = new BufferedReader(new InputStreamReader(c.getInputStream()));
-                 PrintWriter out = new PrintWriter(c.getOutputStream(), true)) {
+            int low = room.low;
+            int high = room.high;
+            SpectatorHub spectators = room.spectators;
+            ResumeRegistry resumes = room.resumes;
+            SessionRegistry sessions = room.sessions;
+            GameFinishedEvent game = new GameFinishedEvent();
+            game.begin();
+
+            boolean keepOpen = false;
+            try {
+                Socket c = client;
+                LineIO.LineReader in = new LineIO.LineReader(c.getInputStream());
+                PrintWriter out = LineIO.writer(c.getOutputStream());
 
                 // store writer to send ranking later
                 info.out = out;
 
-                int secret = new Random().nextInt(high - low + 1) + low;
-                info.secret = secret;
+                String firstLine = null;
+                if (resumed) {
+                    out.println("RESUMED:" + low + ":" + high + ":" + info.guesses);
+                } else {
+                    info.assignSecret(ThreadLocalRandom.current().nextInt(low, high + 1));
+
+                    out.println("START:" + low + ":" + high);
+                    if (resumes.isEnabled()) {
+                        info.resumeToken = ResumeRegistry.newToken();
+                        out.println("TOKEN:" + info.resumeToken);
+                    }
 
-                out.println("START:" + low + ":" + high);
+                    NickHandshakeEvent handshake = new NickHandshakeEvent();
+                    handshake.begin();
+                    try {
+                        c.setSoTimeout(5000);
+                        firstLine = in.readLine();
+                    } catch (SocketTimeoutException ignored) {
+                    } finally {
+                        try { c.setSoTimeout(0); } catch (SocketException ignored) {}
+                    }
 
-                String firstLine = null;
-                try {
-                    c.setSoTimeout(5000);
-                    firstLine = in.readLine();
-                } catch (SocketTimeoutException ignored) {
-                } finally {
-                    try { c.setSoTimeout(0); } catch (SocketException ignored) {}
+                    boolean nickReceived = firstLine != null && firstLine.startsWith("NICK:");
+                    if (nickReceived) {
+                        String name = firstLine.substring(5).trim();
+                        if (!name.isEmpty()) sessions.rename(info, name);
+                        spectators.publish("NICK:" + info.id + ":" + GameRoom.nick(info));
+                        firstLine = null;
+                    }
+                    handshake.end();
+                    if (handshake.shouldCommit()) {
+                        handshake.sessionId = info.id;
+                        handshake.nickname = GameRoom.nick(info);
+                        handshake.received = nickReceived;
+                        handshake.commit();
+                    }
                 }
 
-                if (firstLine != null && firstLine.startsWith("NICK:")) {
-                    String name = firstLine.substring(5).trim();
-                    info.nickname = name.isEmpty() ? info.nickname : name;
-                    firstLine = null;
-                }
+                if (room.race != null) out.println("RACE:" + room.race.remainingSeconds());
+                RateLimiter.SessionLimits limits = room.limiter.forSession(c.getInetAddress());
+
+                PlayerProtocol protocol = new PlayerProtocol(room, info, limits, out);
 
                 // process guesses until this player guesses correctly or quits
                 String line = firstLine;
                 boolean localDone = false;
                 while (!localDone && (line != null || (line = in.readLine()) != null)) {
-                    if (line.startsWith("GUESS:")) {
-                        int g;
-                        try {
-                            g = Integer.parseInt(line.substring(6));
-                        } catch (NumberFormatException e) {
-                            out.println("RESULT:ERROR");
-                            line = null;
-                            continue;
-                        }
-
-                        info.guesses++;
-
-                        if (g < secret) out.println("RESULT:LOW");
-                        else if (g > secret) out.println("RESULT:HIGH");
-                        else {
-                            out.println("RESULT:CORRECT");
-                            // Inform client to stop guessing and wait for others
-                            out.println("WAIT");
-
-                            info.guessedCorrect = true;
-                            synchronized (sessions) {
-                                info.finished = true;
-                                sessions.notifyAll();
-                            }
-                            System.out.println("Client " + c.getRemoteSocketAddress() + " guessed correctly (" + secret + "). Waiting for others.");
-                            localDone = true;
-                            break;
-                        }
-                    } else if (line.equals("QUIT")) {
-                        out.println("BYE");
-                        synchronized (sessions) {
-                            info.finished = true;
-                            sessions.notifyAll();
-                        }
+                    if (info.finished) {
+                        // ended from outside (deadline, drain): go straight to the ranking
                         localDone = true;
                         break;
-                    } else {
-                        out.println("RESULT:ERROR");
                     }
+                    PlayerProtocol.Step step = protocol.handle(line);
+                    if (step == PlayerProtocol.Step.DISCONNECT) return;
+                    localDone = step == PlayerProtocol.Step.DONE;
                     line = null;
                 }
-
-                // Wait until all started players have finished
-                synchronized (sessions) {
-                    while (true) {
-                        boolean allFinished = true;
-                        for (SessionInfo s : sessions) {
-                            if (s.started && !s.finished) {
-                                allFinished = false;
-                                break;
-                            }
-                        }
-                        if (allFinished) break;
-                        try {
-                            sessions.wait();
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            break;
-                        }
-                    }
-
-                    if (rankingSent.compareAndSet(false, true)) {
-                        // Build ranking for started players who participated
-                        List<SessionInfo> ranking = new ArrayList<>();
-                        for (SessionInfo s : sessions) {
-                            if (s.started) ranking.add(s);
-                        }
-                        // Sort players who guessed
-                        ranking.sort((a, b) -> {
-                            boolean aGuessed = a.guessedCorrect;
-                            boolean bGuessed = b.guessedCorrect;
-                            if (aGuessed && bGuessed) return Integer.compare(a.guesses, b.guesses);
-                            if (aGuessed) return -1;
-                            if (bGuessed) return 1;
-                            return Integer.compare(a.id, b.id);
-                        });
-
-                        // Send ranking
-                        for (SessionInfo s : sessions) {
-                            try {
-                                PrintWriter pw = s.out;
-                                if (pw == null) {
-                                    try {
-                                        pw = new PrintWriter(s.socket.getOutputStream(), true);
-                                        s.out = pw;
-                                    } catch (IOException ioe) {
-                                        continue;
-                                    }
-                                }
-                                pw.println("RANKING_START");
-                                int pos = 1;
-                                for (SessionInfo r : ranking) {
-                                    String nick = r.nickname == null ? ("player-" + r.id) : r.nickname;
-                                    String result = r.guessedCorrect ? String.valueOf(r.guesses) : "-";
-                                    pw.println("RANK:" + pos + ":" + nick + ":" + result);
-                                    pos++;
-                                }
-                                pw.println("RANKING_END");
-                                pw.println("BYE");
-                                try {
-                                    s.socket.close();
-                                } catch (IOException ignored) {}
-                            } catch (Exception ex) {
-                                // ignore per-client send errors
-                            }
-                        }
-                    }
+                if (!localDone) {
+                    // connection dropped mid-game; the finally block decides between detach and finish
+                    return;
                 }
 
+                // The connection stays open for the ranking, but this thread and its read buffer
+                // are not needed any more: whoever finishes last sends it.
+                keepOpen = true;
+                room.sendRankingIfDone();
+
             } catch (IOException e) {
                 System.out.println("IO error handling client " + client.getRemoteSocketAddress() + ": " + e.getMessage());
             } finally {
-                info.finished = true;
+                if (!keepOpen) {
+                    try {
+                        client.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+                boolean detached;
                 synchronized (sessions) {
+                    // a player who vanished mid-game keeps secret, guesses and id for a RESUME
+                    detached = !info.finished && resumes.detach(info);
+                    if (detached) {
+                        System.out.println(GameRoom.nick(info) + " dropped; holding session for " + resumes.graceSeconds() + "s.");
+                        spectators.publish("DROP:" + info.id);
+                    } else {
+                        sessions.markFinished(info);
+                    }
                     sessions.notifyAll();
                 }
+                if (!detached) PlayerProtocol.recordFinished(game, room, info);
             }
         }
     }
 
     private static class HostController implements Runnable {
-        private final List<SessionInfo> sessions;
-        private final List<Thread> handlers;
-        private final ServerSocket serverSocket;
+        private final GameRoom room;
+        private final SessionRegistry sessions;
+        private final NetworkServer server;
         private final Scanner scanner;
-        private final int low;
-        private final int high;
-
-        HostController(List<SessionInfo> sessions, List<Thread> handlers, ServerSocket serverSocket, Scanner scanner, int low, int high) {
-            this.sessions = sessions;
-            this.handlers = handlers;
-            this.serverSocket = serverSocket;
+        private static final int DEFAULT_DRAIN_SECONDS = 30;
+        private static final int LIST_PAGE_SIZE = 50;
+        private static final int DEFAULT_TOP = 10;
+
+        HostController(GameRoom room, NetworkServer server, Scanner scanner) {
+            this.room = room;
+            this.sessions = room.sessions;
+            this.server = server;
             this.scanner = scanner;
-            this.low = low;
-            this.high = high;
         }
 
         @Override
@@ -325,45 +740,61 @@ public class NetworkServer {
                 String cmd = parts[0].toLowerCase(Locale.ROOT);
                 switch (cmd) {
                     case "help" -> printHelp();
-                    case "list" -> listSessions();
+                    case "list" -> {
+                        try {
+                            listSessions(parts.length > 1 ? Integer.parseInt(parts[1]) : 0);
+                        } catch (NumberFormatException e) {
+                            System.out.println("Usage: list [after-id]");
+                        }
+                    }
                     case "reveal" -> {
                         if (parts.length < 2) {
-                            System.out.println("Usage: reveal <id>");
+                            System.out.println("Usage: reveal <id|nick>");
                         } else {
-                            try {
-                                int id = Integer.parseInt(parts[1]);
-                                reveal(id);
-                            } catch (NumberFormatException e) {
-                                System.out.println("Invalid id.");
-                            }
+                            reveal(parts[1]);
                         }
                     }
                     case "kick" -> {
                         if (parts.length < 2) {
-                            System.out.println("Usage: kick <id>");
+                            System.out.println("Usage: kick <id|nick>");
                         } else {
+                            kick(parts[1]);
+                        }
+                    }
+                    case "top" -> {
+                        try {
+                            printTop(parts.length > 1 ? Integer.parseInt(parts[1]) : DEFAULT_TOP);
+                        } catch (NumberFormatException e) {
+                            System.out.println("Usage: top [n]");
+                        }
+                    }
+                    case "bots" -> {
+                        try {
+                            server.addBots(Integer.parseInt(parts[1]));
+                        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                            System.out.println("Usage: bots <count>");
+                        }
+                    }
+                    case "start" -> startWaitingSessions();
+                    case "limits" -> System.out.printf("rate limit: throttled=%d ip-throttled=%d disconnected=%d tracked-ips=%d%n",
+                            room.limiter.throttledCount(), room.limiter.ipThrottledCount(), room.limiter.disconnectedCount(),
+                            room.limiter.trackedAddresses());
+                    case "drain" -> {
+                        int seconds = DEFAULT_DRAIN_SECONDS;
+                        if (parts.length > 1) {
                             try {
-                                int id = Integer.parseInt(parts[1]);
-                                kick(id);
+                                seconds = Integer.parseInt(parts[1]);
                             } catch (NumberFormatException e) {
-                                System.out.println("Invalid id.");
+                                System.out.println("Usage: drain [seconds]");
+                                continue;
                             }
                         }
+                        server.drain(seconds);
+                        return;
                     }
-                    case "start" -> startWaitingSessions();
                     case "quit-server", "shutdown" -> {
                         System.out.println("Shutting down server (no new connections) and disconnecting players...");
-                        try {
-                            serverSocket.close();
-                        } catch (IOException ignored) {
-                        }
-                        // close all client sockets and notify waiting threads
-                        synchronized (sessions) {
-                            for (SessionInfo s : sessions) {
-                                s.closeSocket();
-                            }
-                            sessions.notifyAll();
-                        }
+                        server.stop();
                         return;
                     }
                     default -> System.out.println("Unknown command. Type help.");
@@ -372,75 +803,106 @@ public class NetworkServer {
         }
 
         private void startWaitingSessions() {
-            synchronized (sessions) {
-                boolean any = false;
-                for (SessionInfo s : sessions) {
-                    if (!s.started && !s.finished) {
-                        ClientHandler handler = new ClientHandler(s, low, high, sessions);
-                        Thread t = new Thread(handler, "Player-" + s.id);
-                        t.start();
-                        handlers.add(t);
-                        s.started = true;
-                        System.out.println("Started " + (s.nickname == null ? "player-" + s.id : s.nickname));
-                        any = true;
-                    }
-                }
-                if (!any) {
-                    System.out.println("No waiting players to start.");
-                }
-                sessions.notifyAll();
+            if (room.startWaiting() == 0) {
+                System.out.println("No waiting players to start.");
             }
         }
 
         private void printHelp() {
-            System.out.println("Host commands: list, reveal <id>, kick <id>, start, quit-server, help");
+            System.out.println("Host commands: list [after-id], top [n], reveal <id|nick>, kick <id|nick>, bots <count>, start, limits, drain [seconds], quit-server, help");
         }
 
-        private void listSessions() {
-            synchronized (sessions) {
-                if (sessions.isEmpty()) {
-                    System.out.println("No sessions yet.");
-                    return;
-                }
-                for (SessionInfo s : sessions) {
-                    System.out.printf("id=%d nick=%s addr=%s secret=%s started=%b finished=%b%n",
-                            s.id,
-                            s.nickname == null ? "?" : s.nickname,
-                            s.socket.getRemoteSocketAddress(),
-                            (s.secret == null ? "?" : "assigned"),
-                            s.started,
-                            s.finished);
-                }
+        // pages are copied from the registry without locking, so printing never holds up players;
+        // a row may be a moment out of date, see SessionRegistry.page
+        private void listSessions(int afterId) {
+            if (sessions.isEmpty()) {
+                System.out.println("No sessions yet.");
+                return;
+            }
+            if (room.spectators.spectatorCount() > 0) {
+                System.out.println("spectators=" + room.spectators.spectatorCount());
+            }
+            if (!room.resumes.isEmpty()) {
+                System.out.println("detached=" + room.resumes.size());
+            }
+            List<SessionRegistry.SessionView> page = sessions.page(afterId, LIST_PAGE_SIZE);
+            for (SessionRegistry.SessionView s : page) {
+                System.out.printf("id=%d nick=%s addr=%s secret=%s started=%b finished=%b%n",
+                        s.id,
+                        s.nickname == null ? "?" : s.nickname,
+                        s.address,
+                        (s.secretAssigned ? "assigned" : "?"),
+                        s.started,
+                        s.finished);
+            }
+            if (page.size() == LIST_PAGE_SIZE) {
+                System.out.println("More: list " + page.get(page.size() - 1).id);
             }
         }
 
-        private void reveal(int id) {
-            synchronized (sessions) {
-                for (SessionInfo s : sessions) {
-                    if (s.id == id) {
-                        if (s.secret == null) {
-                            System.out.println("Secret not assigned yet.");
-                        } else {
-                            System.out.println("Player " + id + " secret: " + s.secret);
-                        }
-                        return;
-                    }
+        // provisional: players still guessing are listed after every solver
+        private void printTop(int n) {
+            Standings standings = sessions.standings();
+            List<SessionInfo> top = standings.top(n);
+            if (top.isEmpty()) {
+                System.out.println("No players started yet.");
+                return;
+            }
+            int pos = 1;
+            for (SessionInfo s : top) {
+                String result;
+                if (s.guessedCorrect) {
+                    result = s.guesses + " guesses" + (room.race != null ? " in " + s.solveMillis + " ms" : "");
+                } else {
+                    result = s.finished ? "did not guess" : "playing (" + s.guesses + ")";
                 }
-                System.out.println("No session with id " + id);
+                System.out.printf("%d) %s - %s%n", pos++, GameRoom.nick(s), result);
+            }
+            System.out.println("solved=" + standings.solvedCount() + " of " + standings.size());
+            if (room.race != null && room.race.isRunning()) {
+                System.out.println("time left=" + room.race.remainingSeconds() + "s");
             }
         }
 
-        private void kick(int id) {
-            synchronized (sessions) {
-                for (SessionInfo s : sessions) {
-                    if (s.id == id) {
-                        System.out.println("Kicking player " + id);
-                        s.closeSocket();
-                        return;
-                    }
+        // Numeric arguments are ids, anything else a nickname. A nickname shared by several
+        // sessions is refused with their ids, so the host never acts on the wrong player.
+        private SessionInfo find(String key) {
+            SessionInfo s;
+            try {
+                s = sessions.get(Integer.parseInt(key));
+            } catch (NumberFormatException e) {
+                List<SessionInfo> named = sessions.withNickname(key);
+                if (named.size() > 1) {
+                    StringBuilder ids = new StringBuilder();
+                    named.stream().mapToInt(n -> n.id).sorted().forEach(id -> {
+                        if (ids.length() > 0) ids.append(", ");
+                        ids.append(id);
+                    });
+                    System.out.println("Several sessions are called " + key + " (ids " + ids + "); use the id.");
+                    return null;
                 }
-                System.out.println("No session with id " + id);
+                s = named.isEmpty() ? null : named.get(0);
             }
+            if (s == null) System.out.println("No session " + key);
+            return s;
+        }
+
+        private void reveal(String key) {
+            SessionInfo s = find(key);
+            if (s == null) return;
+            if (!s.secretAssigned) {
+                System.out.println("Secret not assigned yet.");
+            } else {
+                System.out.println("Player " + s.id + " secret: " + s.secret);
+            }
+        }
+
+        private void kick(String key) {
+            SessionInfo s = find(key);
+            if (s == null) return;
+            System.out.println("Kicking player " + s.id);
+            sessions.markFinished(s);
+            room.disconnect(s, null);
         }
     }
 
@@ -450,6 +912,9 @@ public class NetworkServer {
         int low = args.length > 1 ? Integer.parseInt(args[1]) : 1;
         int high = args.length > 2 ? Integer.parseInt(args[2]) : 100;
         int maxPlayers = args.length > 3 ? Integer.parseInt(args[3]) : 1;
-        new NetworkServer(port, low, high, maxPlayers).start();
+        NetworkServer server = new NetworkServer(port, low, high, maxPlayers);
+        if (args.length > 4) server.setSpectatorPort(Integer.parseInt(args[4]));
+        if (args.length > 5) server.setRaceSeconds(Integer.parseInt(args[5]));
+        server.start();
     }
 }
\ No newline at end of file
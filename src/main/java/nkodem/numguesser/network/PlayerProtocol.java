@@ -0,0 +1,128 @@
+package nkodem.numguesser.network;
+
+import java.io.PrintWriter;
+
+import nkodem.numguesser.jfr.GameFinishedEvent;
+import nkodem.numguesser.jfr.GuessEvent;
+import nkodem.numguesser.network.NetworkServer.SessionInfo;
+
+// The commands of a player in a running game, whatever carries them: one request line in,
+// reply lines out. The TCP handler and the UDP gateway only move lines and decide what a
+// DONE or DISCONNECT means for their connection.
+final class PlayerProtocol {
+    enum Step { CONTINUE, DONE, DISCONNECT }
+
+    private final GameRoom room;
+    private final SessionInfo info;
+    private final RateLimiter.SessionLimits limits;
+    private final PrintWriter out;
+
+    PlayerProtocol(GameRoom room, SessionInfo info, RateLimiter.SessionLimits limits, PrintWriter out) {
+        this.room = room;
+        this.info = info;
+        this.limits = limits;
+        this.out = out;
+    }
+
+    Step handle(String line) {
+        if (line.startsWith("GUESS:")) {
+            RateLimiter.Decision decision = limits.onGuess();
+            if (decision != RateLimiter.Decision.ALLOW) {
+                if (!throttle(decision)) return Step.DISCONNECT;
+                out.println("RESULT:SLOW");
+                return Step.CONTINUE;
+            }
+            int g;
+            try {
+                g = Integer.parseInt(line.substring(6));
+            } catch (NumberFormatException e) {
+                return reportError() ? Step.CONTINUE : Step.DISCONNECT;
+            }
+
+            GuessEvent guessEvent = new GuessEvent();
+            guessEvent.begin();
+            GameRoom.Outcome outcome = room.evaluate(info, g);
+            if (outcome == GameRoom.Outcome.LOW) out.println("RESULT:LOW");
+            else if (outcome == GameRoom.Outcome.HIGH) out.println("RESULT:HIGH");
+            recordGuess(guessEvent, g, outcome.name());
+            if (outcome == GameRoom.Outcome.LATE) return Step.DONE;
+            if (outcome == GameRoom.Outcome.CORRECT) {
+                out.println("RESULT:CORRECT");
+                // Inform client to stop guessing and wait for others
+                out.println("WAIT");
+
+                room.solved(info);
+                System.out.println("Client " + info.remoteAddress() + " guessed correctly (" + info.secret + "). Waiting for others.");
+                return Step.DONE;
+            }
+        } else if (line.equals("RANK")) {
+            // costs a guess token: it takes the standings lock
+            RateLimiter.Decision decision = limits.onGuess();
+            if (decision != RateLimiter.Decision.ALLOW) {
+                if (!throttle(decision)) return Step.DISCONNECT;
+                out.println("RESULT:SLOW");
+            } else {
+                Standings standings = room.sessions.standings();
+                out.println("STANDING:" + standings.rankOf(info) + ":" + standings.size() + ":" + standings.solvedCount());
+            }
+        } else if (line.equals("QUIT")) {
+            out.println("BYE");
+            room.spectators.publish("QUIT:" + info.id);
+            room.sessions.markFinished(info);
+            return Step.DONE;
+        } else if (!reportError()) {
+            return Step.DISCONNECT;
+        }
+        return Step.CONTINUE;
+    }
+
+    private void recordGuess(GuessEvent event, int guess, String result) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.sessionId = info.id;
+            event.attempt = info.guesses;
+            event.guess = guess;
+            event.low = room.low;
+            event.high = room.high;
+            event.result = result;
+            event.commit();
+        }
+    }
+
+    static void recordFinished(GameFinishedEvent event, GameRoom room, SessionInfo info) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.sessionId = info.id;
+            event.nickname = GameRoom.nick(info);
+            event.low = room.low;
+            event.high = room.high;
+            event.attempts = info.guesses;
+            event.guessed = info.guessedCorrect;
+            event.commit();
+        }
+    }
+
+    // replies ERROR until the error budget runs out, then goes quiet; false means disconnect
+    private boolean reportError() {
+        RateLimiter.Decision decision = limits.onError();
+        if (decision == RateLimiter.Decision.ALLOW) {
+            out.println("RESULT:ERROR");
+            return true;
+        }
+        return throttle(decision);
+    }
+
+    private boolean throttle(RateLimiter.Decision decision) {
+        if (decision == RateLimiter.Decision.DISCONNECT) {
+            System.out.println("Rate limit: disconnecting " + GameRoom.nick(info) + " after " + limits.violations() + " violations.");
+            room.spectators.publish("KICK:" + info.id);
+            out.println("BYE");
+            room.sessions.markFinished(info);
+            return false;
+        }
+        if (limits.violations() == 1) {
+            System.out.println("Rate limit: throttling " + GameRoom.nick(info) + " (" + info.remoteAddress() + ").");
+        }
+        return true;
+    }
+}
@@ -0,0 +1,226 @@
+package nkodem.numguesser.network;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import nkodem.numguesser.network.NetworkServer.SessionInfo;
+
+// Round deadline and live leaderboard for race mode. Guesses never trigger a push: one tick
+// compares the standings version with the last one sent and, when it moved, builds the board
+// once and queues the same text for every player and spectator. At the deadline the round is
+// ended the same way drain ends one.
+//
+// The clock thread never writes to a socket. Each player has a small drop-oldest queue that a
+// pusher thread empties, like a spectator's, so a player who stops reading only holds up its
+// own boards and never the others or the deadline.
+class RaceClock {
+    static final int TICK_MS = 500;
+    private static final int TOP = 3;
+    // boards are whole snapshots, so an old one is worth little once a newer one is queued
+    private static final int OUTBOX_CAPACITY = 4;
+    // how long TIMEUP gets to reach the players before the ranking follows it
+    private static final int FLUSH_MS = 1000;
+
+    private final GameRoom room;
+    private final long roundNanos;
+    private ScheduledExecutorService ticker;
+    // a pusher stuck on a client that stopped reading holds only its own thread
+    private final ExecutorService pushers = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "Race-Push");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Map<SessionInfo, Outbox> outboxes = new ConcurrentHashMap<>();
+    private volatile long deadlineNanos = 0;
+    private long sentVersion = -1;
+
+    RaceClock(GameRoom room, int seconds) {
+        this.room = room;
+        this.roundNanos = TimeUnit.SECONDS.toNanos(seconds);
+    }
+
+    // the first call starts the round; players started later share its deadline
+    synchronized void start() {
+        start(roundNanos);
+    }
+
+    // picks a checkpointed round up with the time it had left
+    synchronized void resume(long millisLeft) {
+        start(TimeUnit.MILLISECONDS.toNanos(Math.max(0, Math.min(millisLeft, TimeUnit.NANOSECONDS.toMillis(roundNanos)))));
+    }
+
+    private void start(long nanosLeft) {
+        if (ticker != null) return;
+        deadlineNanos = System.nanoTime() + nanosLeft;
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Race-Clock");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleAtFixedRate(this::tick, 0, TICK_MS, TimeUnit.MILLISECONDS);
+        ticker.schedule(this::timeUp, nanosLeft, TimeUnit.NANOSECONDS);
+        System.out.println("Race started: " + TimeUnit.NANOSECONDS.toSeconds(nanosLeft) + "s on the clock.");
+    }
+
+    boolean isRunning() {
+        return deadlineNanos != 0;
+    }
+
+    // -1 before the round has started
+    long remainingMillis() {
+        long deadline = deadlineNanos;
+        if (deadline == 0) return -1;
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    // System.nanoTime() the round started at, had it been running since
+    long roundStartNanos() {
+        return deadlineNanos - roundNanos;
+    }
+
+    int remainingSeconds() {
+        long deadline = deadlineNanos;
+        if (deadline == 0) return (int) TimeUnit.NANOSECONDS.toSeconds(roundNanos);
+        long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        return (int) Math.max(0, (left + 999) / 1000);
+    }
+
+    // Pushers finish what is already queued, the ranking after TIMEUP included, and then
+    // exit instead of idling for a minute after every race room.
+    synchronized void stop() {
+        stopTicker();
+        pushers.shutdown();
+    }
+
+    private synchronized void stopTicker() {
+        // shutdownNow also drops the pending deadline
+        if (ticker != null) ticker.shutdownNow();
+    }
+
+    private void tick() {
+        try {
+            if (room.rankingSent()) {
+                stop();
+            } else if (System.nanoTime() - deadlineNanos < 0) {
+                pushIfChanged();
+            }
+        } catch (RuntimeException e) {
+            // a failed tick must not cancel the schedule
+            System.out.println("Race clock error: " + e.getMessage());
+        }
+    }
+
+    private void pushIfChanged() {
+        Standings standings = room.sessions.standings();
+        long version = standings.version();
+        if (version == sentVersion) return;
+        sentVersion = version;
+
+        StringBuilder board = new StringBuilder("LEADER:")
+                .append(remainingSeconds()).append(':')
+                .append(standings.solvedCount()).append(':')
+                .append(standings.size());
+        List<SessionInfo> top = standings.top(TOP);
+        int pos = 1;
+        for (SessionInfo s : top) {
+            if (!s.guessedCorrect) break;
+            // nickname last so it may contain ':'
+            board.append("\nTOP:").append(pos++).append(':').append(s.solveMillis).append(':')
+                    .append(s.guesses).append(':').append(GameRoom.nick(s));
+        }
+        broadcast(board.toString());
+    }
+
+    private void timeUp() {
+        try {
+            if (room.rankingSent()) return;
+            stopTicker();
+            broadcast("TIMEUP");
+            // nobody may rejoin a finished round
+            room.resumes.close();
+            System.out.println("Race over, ending " + room.forceFinish() + " unfinished sessions.");
+            // the ranking is written straight to the sockets, so it goes out on a pusher, after TIMEUP
+            pushers.execute(() -> {
+                flush(FLUSH_MS);
+                room.awaitAndSendRanking();
+            });
+            pushers.shutdown();
+        } catch (RuntimeException e) {
+            System.out.println("Race clock error: " + e.getMessage());
+        }
+    }
+
+    private void broadcast(String lines) {
+        room.spectators.publish(lines);
+        for (SessionInfo s : room.sessions) {
+            if (s.out != null) outboxes.computeIfAbsent(s, Outbox::new).enqueue(lines);
+        }
+    }
+
+    // waits up to timeoutMs for the queued boards to be written
+    private void flush(long timeoutMs) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        for (Outbox o : outboxes.values()) {
+            while (!o.isIdle() && deadline - System.nanoTime() > 0) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private class Outbox implements Runnable {
+        private final SessionInfo session;
+        private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(OUTBOX_CAPACITY);
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        Outbox(SessionInfo session) {
+            this.session = session;
+        }
+
+        // never blocks the clock: when the queue is full the oldest board is dropped
+        void enqueue(String lines) {
+            while (!queue.offer(lines)) {
+                queue.poll();
+            }
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    pushers.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // the clock was stopped; nobody is waiting for boards any more
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        boolean isIdle() {
+            return !scheduled.get();
+        }
+
+        @Override
+        public void run() {
+            do {
+                String lines;
+                while ((lines = queue.poll()) != null) {
+                    PrintWriter pw = session.out;
+                    if (pw != null) pw.println(lines);
+                }
+                scheduled.set(false);
+                // something queued after the last poll but before the flag dropped
+            } while (!queue.isEmpty() && scheduled.compareAndSet(false, true));
+        }
+    }
+}
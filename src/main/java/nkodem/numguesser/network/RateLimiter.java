@@ -0,0 +1,166 @@
+package nkodem.numguesser.network;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Per-session and per-IP limits on guesses and malformed lines. Rates of 0 switch a limit off.
+public class RateLimiter {
+    public enum Decision { ALLOW, THROTTLE, DISCONNECT }
+
+    private static final int IP_PRUNE_THRESHOLD = 10_000;
+    // above the threshold a full scan runs at most this often, not on every connection
+    private static final long IP_PRUNE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final double guessesPerSecond;
+    private final int guessBurst;
+    private final double errorsPerSecond;
+    private final int errorBurst;
+    private final double ipGuessesPerSecond;
+    private final int ipBurst;
+    private final int maxViolations;
+
+    private final Map<InetAddress, Bucket> perIp = new ConcurrentHashMap<>();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder disconnected = new LongAdder();
+    private final LongAdder ipThrottled = new LongAdder();
+    private final AtomicLong lastPrune = new AtomicLong(System.nanoTime() - IP_PRUNE_INTERVAL_NANOS);
+
+    public RateLimiter(double guessesPerSecond, int guessBurst, double errorsPerSecond, int errorBurst,
+                       double ipGuessesPerSecond, int ipBurst, int maxViolations) {
+        this.guessesPerSecond = guessesPerSecond;
+        this.guessBurst = guessBurst;
+        this.errorsPerSecond = errorsPerSecond;
+        this.errorBurst = errorBurst;
+        this.ipGuessesPerSecond = ipGuessesPerSecond;
+        this.ipBurst = ipBurst;
+        this.maxViolations = maxViolations;
+    }
+
+    public static RateLimiter defaults() {
+        return new RateLimiter(20, 40, 5, 10, 200, 400, 50);
+    }
+
+    public static RateLimiter unlimited() {
+        return new RateLimiter(0, 0, 0, 0, 0, 0, 0);
+    }
+
+    public SessionLimits forSession(InetAddress address) {
+        Bucket ip = null;
+        if (ipGuessesPerSecond > 0 && address != null) {
+            if (perIp.size() > IP_PRUNE_THRESHOLD) maybePruneIdle();
+            ip = perIp.computeIfAbsent(address, a -> new Bucket(ipGuessesPerSecond, ipBurst));
+        }
+        return new SessionLimits(Bucket.of(guessesPerSecond, guessBurst), Bucket.of(errorsPerSecond, errorBurst), ip);
+    }
+
+    public long throttledCount() {
+        return throttled.sum();
+    }
+
+    public long disconnectedCount() {
+        return disconnected.sum();
+    }
+
+    // guesses held back because the address as a whole was over its rate
+    public long ipThrottledCount() {
+        return ipThrottled.sum();
+    }
+
+    public int trackedAddresses() {
+        return perIp.size();
+    }
+
+    // a full bucket carries no state worth keeping; one caller per interval does the scan
+    private void maybePruneIdle() {
+        long now = System.nanoTime();
+        long last = lastPrune.get();
+        if (now - last < IP_PRUNE_INTERVAL_NANOS || !lastPrune.compareAndSet(last, now)) return;
+        perIp.values().removeIf(b -> b.idleAt(now));
+    }
+
+    // One per connection; only the handler thread of that connection calls it.
+    public final class SessionLimits {
+        private final Bucket guesses;
+        private final Bucket errors;
+        private final Bucket ip;
+        private int violations = 0;
+
+        private SessionLimits(Bucket guesses, Bucket errors, Bucket ip) {
+            this.guesses = guesses;
+            this.errors = errors;
+            this.ip = ip;
+        }
+
+        // The address bucket is shared with everyone behind the same NAT, so running it dry is
+        // not this session's fault: the guess is only held back, the session keeps its own
+        // token and the denial does not count towards a disconnect.
+        public Decision onGuess() {
+            if (guesses != null && !guesses.tryAcquire()) return violation();
+            if (ip != null && !ip.tryAcquire()) {
+                if (guesses != null) guesses.refund();
+                ipThrottled.increment();
+                return Decision.THROTTLE;
+            }
+            return Decision.ALLOW;
+        }
+
+        public Decision onError() {
+            if (errors == null || errors.tryAcquire()) return Decision.ALLOW;
+            return violation();
+        }
+
+        public int violations() {
+            return violations;
+        }
+
+        private Decision violation() {
+            violations++;
+            if (maxViolations > 0 && violations >= maxViolations) {
+                disconnected.increment();
+                return Decision.DISCONNECT;
+            }
+            throttled.increment();
+            return Decision.THROTTLE;
+        }
+    }
+
+    // Token bucket kept as a single "theoretical arrival time" (GCRA), so taking a token is one CAS
+    // and refilling needs no timer.
+    static final class Bucket {
+        private final long intervalNanos;
+        private final long toleranceNanos;
+        private final AtomicLong tat = new AtomicLong(System.nanoTime());
+
+        Bucket(double perSecond, int burst) {
+            this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / perSecond));
+            this.toleranceNanos = intervalNanos * Math.max(1, burst);
+        }
+
+        static Bucket of(double perSecond, int burst) {
+            return perSecond > 0 ? new Bucket(perSecond, burst) : null;
+        }
+
+        boolean tryAcquire() {
+            long now = System.nanoTime();
+            while (true) {
+                long current = tat.get();
+                long next = Math.max(current, now) + intervalNanos;
+                if (next - now > toleranceNanos) return false;
+                if (tat.compareAndSet(current, next)) return true;
+            }
+        }
+
+        // gives back a token taken by tryAcquire
+        void refund() {
+            tat.addAndGet(-intervalNanos);
+        }
+
+        boolean idleAt(long now) {
+            return tat.get() - now <= 0;
+        }
+    }
+}
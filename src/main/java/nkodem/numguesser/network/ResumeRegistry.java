@@ -0,0 +1,108 @@
+package nkodem.numguesser.network;
+
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Sessions whose connection dropped mid-game, keyed by the numeric value of their resume token.
+// Entries only hold the session and a deadline; a single reaper expires them.
+public class ResumeRegistry {
+    private static final SecureRandom TOKENS = new SecureRandom();
+
+    private final long graceNanos;
+    private final Consumer<NetworkServer.SessionInfo> onExpire;
+    private final Map<Long, Detached> detached = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService reaper;
+    private volatile boolean open = true;
+
+    public ResumeRegistry(int graceSeconds, Consumer<NetworkServer.SessionInfo> onExpire) {
+        this.graceNanos = TimeUnit.SECONDS.toNanos(Math.max(0, graceSeconds));
+        this.onExpire = onExpire;
+        this.reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Resume-Reaper");
+            t.setDaemon(true);
+            return t;
+        });
+        reaper.scheduleWithFixedDelay(this::expire, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public boolean isEnabled() {
+        return open && graceNanos > 0;
+    }
+
+    public boolean isEmpty() {
+        return detached.isEmpty();
+    }
+
+    public int size() {
+        return detached.size();
+    }
+
+    public int graceSeconds() {
+        return (int) TimeUnit.NANOSECONDS.toSeconds(graceNanos);
+    }
+
+    public static String newToken() {
+        return Long.toHexString(TOKENS.nextLong() & Long.MAX_VALUE);
+    }
+
+    // false when resumption is off and the caller should treat the session as finished
+    public boolean detach(NetworkServer.SessionInfo info) {
+        Long key = parse(info.resumeToken);
+        if (!isEnabled() || key == null) return false;
+        detached.put(key, new Detached(info, System.nanoTime() + graceNanos));
+        return true;
+    }
+
+    public NetworkServer.SessionInfo claim(String token) {
+        Long key = parse(token);
+        if (key == null) return null;
+        Detached d = detached.remove(key);
+        if (d == null || d.expiresAt - System.nanoTime() < 0) {
+            if (d != null) onExpire.accept(d.session);
+            return null;
+        }
+        return d.session;
+    }
+
+    public void close() {
+        open = false;
+        reaper.shutdownNow();
+        for (Map.Entry<Long, Detached> e : detached.entrySet()) {
+            if (detached.remove(e.getKey(), e.getValue())) onExpire.accept(e.getValue().session);
+        }
+    }
+
+    private void expire() {
+        long now = System.nanoTime();
+        for (Map.Entry<Long, Detached> e : detached.entrySet()) {
+            Detached d = e.getValue();
+            if (d.expiresAt - now < 0 && detached.remove(e.getKey(), d)) {
+                onExpire.accept(d.session);
+            }
+        }
+    }
+
+    private static Long parse(String token) {
+        if (token == null) return null;
+        try {
+            return Long.parseUnsignedLong(token, 16);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static final class Detached {
+        final NetworkServer.SessionInfo session;
+        final long expiresAt;
+
+        Detached(NetworkServer.SessionInfo session, long expiresAt) {
+            this.session = session;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package nkodem.numguesser.network;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.net.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+// Measures the heap one idle player costs the server. A server runs in this JVM with a room of
+// n players that starts by itself; a child JVM opens the n connections and then stays silent,
+// so every session sits in its handler waiting for a guess. The heap after the game started,
+// minus the heap before anyone connected, divided by n is the figure to watch.
+//
+// The heap is not the whole bill: each started player still has its own handler thread, and
+// its stack is reserved outside the heap. The report puts the extra threads times the stack
+// size next to the heap figure, and the resident set of the process where /proc has it.
+//
+// Each process needs a descriptor per connection (see ulimit -n). Past about 28k connections
+// the client spreads over 127.0.0.x source addresses so it does not run out of local ports.
+public class SessionFootprint {
+    private static final int PER_SOURCE_ADDRESS = 25_000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--clients")) {
+            clients(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+            return;
+        }
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 5099;
+
+        NetworkServer server = new NetworkServer(port, 1, 1_000_000, players);
+        server.setAutoStart(true);
+        server.setRateLimiter(RateLimiter.unlimited());
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start(null);
+            } catch (IOException e) {
+                System.out.println("Server failed: " + e.getMessage());
+            }
+        }, "Footprint-Server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread.sleep(1000);
+        long baseline = usedHeap();
+        int baseThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+        long baseRss = residentBytes();
+
+        Process child = new ProcessBuilder(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"),
+                SessionFootprint.class.getName(), "--clients", String.valueOf(port), String.valueOf(players))
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                .start();
+
+        long t0 = System.nanoTime();
+        while (server.getJoinedPlayers() < players) {
+            if (!child.isAlive()) {
+                System.out.println("Client process exited after " + server.getJoinedPlayers() + " connections.");
+                return;
+            }
+            Thread.sleep(200);
+        }
+        // let the handlers send START and park in their first read
+        Thread.sleep(3000);
+        long loaded = usedHeap();
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+        long rss = residentBytes();
+        long stack = stackBytes();
+        long extraThreads = threads - baseThreads;
+        System.out.printf("%d players joined in %d ms%n", players, (System.nanoTime() - t0) / 1_000_000);
+        System.out.printf("heap before=%d KB after=%d KB, %d bytes per idle player%n",
+                baseline / 1024, loaded / 1024, (loaded - baseline) / players);
+        // reserved address space; the pages a parked thread actually touched show up in the RSS
+        System.out.printf("threads before=%d after=%d, stack %d KB each: %d KB reserved, %d bytes per idle player%n",
+                baseThreads, threads, stack / 1024, extraThreads * stack / 1024, extraThreads * stack / players);
+        if (baseRss >= 0 && rss >= 0) {
+            System.out.printf("resident before=%d KB after=%d KB, %d bytes per idle player%n",
+                    baseRss / 1024, rss / 1024, (rss - baseRss) / players);
+        }
+
+        child.getOutputStream().close();
+        child.waitFor();
+        server.stop();
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(200);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    // -Xss if given, otherwise the platform default HotSpot reports
+    private static long stackBytes() {
+        try {
+            HotSpotDiagnosticMXBean vm = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            long kb = Long.parseLong(vm.getVMOption("ThreadStackSize").getValue());
+            if (kb > 0) return kb * 1024;
+        } catch (RuntimeException ignored) {
+        }
+        return 1024 * 1024;
+    }
+
+    // VmRSS from /proc, or -1 where there is none
+    private static long residentBytes() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.substring(6).replace("kB", "").trim()) * 1024;
+                }
+            }
+        } catch (IOException | RuntimeException ignored) {
+        }
+        return -1;
+    }
+
+    // opens the connections, names each player and then waits until stdin is closed
+    private static void clients(int port, int count) throws IOException {
+        List<Socket> sockets = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Socket s = new Socket();
+            s.bind(new InetSocketAddress("127.0.0." + (1 + i / PER_SOURCE_ADDRESS), 0));
+            s.connect(new InetSocketAddress("127.0.0.1", port));
+            s.getOutputStream().write(("NICK:idle-" + i + "\n").getBytes());
+            sockets.add(s);
+        }
+        while (System.in.read() != -1) {
+            // hold the connections
+        }
+        for (Socket s : sockets) {
+            s.close();
+        }
+    }
+}
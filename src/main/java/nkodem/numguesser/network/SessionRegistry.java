@@ -0,0 +1,182 @@
+package nkodem.numguesser.network;
+
+import java.net.SocketAddress;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nkodem.numguesser.network.NetworkServer.SessionInfo;
+
+// Sessions of one room, indexed by id and nickname. Nicknames are not unique, so every session
+// under a nickname is kept and none can hide another. Lookups, iteration and admin pages never
+// lock; the monitor of this object is only used by handlers waiting for the game to end, and
+// markStarted/markFinished are the only writers of those two flags so the count stays exact.
+// Started players are also kept in the room's Standings as they start and solve.
+public class SessionRegistry implements Iterable<SessionInfo> {
+    private final Map<Integer, SessionInfo> byId = new ConcurrentHashMap<>();
+    // the lists are replaced on every change, never changed in place
+    private final Map<String, List<SessionInfo>> byNick = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Integer, SessionInfo> ordered = new ConcurrentSkipListMap<>();
+    // started but not finished
+    private final AtomicInteger playing = new AtomicInteger();
+    private volatile boolean anyStarted = false;
+    private final Standings standings;
+
+    public SessionRegistry() {
+        this(false);
+    }
+
+    // raceOrder ranks solvers by time to solve before attempts
+    public SessionRegistry(boolean raceOrder) {
+        this.standings = new Standings(raceOrder);
+    }
+
+    public void add(SessionInfo s) {
+        byId.put(s.id, s);
+        ordered.put(s.id, s);
+        if (s.nickname != null) index(s.nickname, s);
+    }
+
+    public SessionInfo get(int id) {
+        return byId.get(id);
+    }
+
+    // every session going by this nickname, in no particular order; players who never sent
+    // NICK answer to their default "player-<id>"
+    public List<SessionInfo> withNickname(String nickname) {
+        List<SessionInfo> named = byNick.getOrDefault(nickname, List.of());
+        if (nickname.startsWith("player-")) {
+            try {
+                SessionInfo unnamed = byId.get(Integer.parseInt(nickname.substring(7)));
+                if (unnamed != null && unnamed.nickname == null) {
+                    List<SessionInfo> all = new ArrayList<>(named);
+                    all.add(unnamed);
+                    return all;
+                }
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return named;
+    }
+
+    public void rename(SessionInfo s, String nickname) {
+        String old = s.nickname;
+        s.nickname = nickname;
+        if (old != null) unindex(old, s);
+        index(nickname, s);
+    }
+
+    private void index(String nickname, SessionInfo s) {
+        byNick.compute(nickname, (k, same) -> {
+            List<SessionInfo> list = same == null ? new ArrayList<>(1) : new ArrayList<>(same);
+            list.add(s);
+            return list;
+        });
+    }
+
+    private void unindex(String nickname, SessionInfo s) {
+        byNick.computeIfPresent(nickname, (k, same) -> {
+            List<SessionInfo> list = new ArrayList<>(same);
+            list.remove(s);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    public boolean isEmpty() {
+        return byId.isEmpty();
+    }
+
+    // id order, weakly consistent
+    @Override
+    public Iterator<SessionInfo> iterator() {
+        return ordered.values().iterator();
+    }
+
+    public synchronized boolean markStarted(SessionInfo s) {
+        if (s.started) return false;
+        s.started = true;
+        s.startedAt = System.nanoTime();
+        anyStarted = true;
+        if (!s.finished) playing.incrementAndGet();
+        standings.update(s);
+        notifyAll();
+        return true;
+    }
+
+    // the player still has to be told before markFinished lets the ranking go out;
+    // false if the session was already ended, e.g. by a race deadline
+    public synchronized boolean markSolved(SessionInfo s) {
+        if (s.finished) return false;
+        s.guessedCorrect = true;
+        s.solveMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - s.startedAt);
+        standings.update(s);
+        return true;
+    }
+
+    public synchronized boolean markFinished(SessionInfo s) {
+        if (s.finished) {
+            notifyAll();
+            return false;
+        }
+        s.finished = true;
+        if (s.started) playing.decrementAndGet();
+        notifyAll();
+        return true;
+    }
+
+    public boolean allFinished() {
+        return playing.get() == 0;
+    }
+
+    public int playingCount() {
+        return playing.get();
+    }
+
+    public boolean anyStarted() {
+        return anyStarted;
+    }
+
+    public Standings standings() {
+        return standings;
+    }
+
+    // Up to limit sessions with id > afterId, copied so the caller can format them at leisure.
+    // Weakly consistent, not a snapshot: a session added during the walk may or may not be in
+    // it, and each row reads the live fields one by one, so a row taken while its player moves
+    // on can mix the two states, e.g. finished with the guess count from just before.
+    public List<SessionView> page(int afterId, int limit) {
+        List<SessionView> page = new ArrayList<>(Math.min(limit, 64));
+        for (SessionInfo s : ordered.tailMap(afterId, false).values()) {
+            if (page.size() >= limit) break;
+            page.add(new SessionView(s));
+        }
+        return page;
+    }
+
+    public static final class SessionView {
+        public final int id;
+        public final String nickname;
+        public final String address;
+        public final boolean secretAssigned;
+        public final boolean started;
+        public final boolean finished;
+        public final int guesses;
+
+        SessionView(SessionInfo s) {
+            this.id = s.id;
+            this.nickname = GameRoom.nick(s);
+            SocketAddress remote = s.remoteAddress();
+            this.address = s.isBot() ? "bot" : remote == null ? "detached" : (s.isDatagram() ? "udp" : "") + remote;
+            this.secretAssigned = s.secretAssigned;
+            this.started = s.started;
+            this.finished = s.finished;
+            this.guesses = s.guesses;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package nkodem.numguesser.network;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Read-only live event stream for spectators. Every event is encoded once and the same
+// bytes are queued for each subscriber; a slow spectator only loses its own oldest events.
+public class SpectatorHub {
+    private static final int QUEUE_CAPACITY = 256;
+
+    private final CopyOnWriteArrayList<Spectator> spectators = new CopyOnWriteArrayList<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private volatile ServerSocket serverSocket;
+
+    public void listen(int port, int low, int high) throws IOException {
+        ServerSocket ss = new ServerSocket(port);
+        serverSocket = ss;
+        byte[] hello = encode("SPECTATE:" + low + ":" + high);
+        Thread acceptor = new Thread(() -> {
+            while (!ss.isClosed()) {
+                try {
+                    Socket socket = ss.accept();
+                    Spectator s = new Spectator(nextId.getAndIncrement(), socket);
+                    s.queue.offer(hello);
+                    spectators.add(s);
+                    Thread t = new Thread(s, "Spectator-" + s.id);
+                    t.setDaemon(true);
+                    t.start();
+                    System.out.println("Spectator connected: " + socket.getRemoteSocketAddress());
+                } catch (IOException e) {
+                    break;
+                }
+            }
+        }, "Spectator-Acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        System.out.println("Spectators can connect on port " + port + ".");
+    }
+
+    public boolean hasSpectators() {
+        return !spectators.isEmpty();
+    }
+
+    public int spectatorCount() {
+        return spectators.size();
+    }
+
+    public void publish(String event) {
+        if (spectators.isEmpty()) return;
+        publish(encode(event));
+    }
+
+    public void publish(byte[] payload) {
+        for (Spectator s : spectators) {
+            s.enqueue(payload);
+        }
+    }
+
+    // waits up to timeoutMs for spectators to receive what is already queued
+    public void flush(long timeoutMs) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        for (Spectator s : spectators) {
+            while (!s.queue.isEmpty() && deadline - System.nanoTime() > 0) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    public void close() {
+        ServerSocket ss = serverSocket;
+        if (ss != null) {
+            try {
+                ss.close();
+            } catch (IOException ignored) {
+            }
+        }
+        for (Spectator s : spectators) {
+            s.shutdown();
+        }
+        spectators.clear();
+    }
+
+    public static byte[] encode(String lines) {
+        return (lines + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private class Spectator implements Runnable {
+        private final int id;
+        private final Socket socket;
+        private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final AtomicInteger dropped = new AtomicInteger();
+        private volatile boolean closed = false;
+
+        Spectator(int id, Socket socket) {
+            this.id = id;
+            this.socket = socket;
+        }
+
+        // never blocks the publisher: when the queue is full the oldest event is dropped
+        void enqueue(byte[] payload) {
+            while (!queue.offer(payload)) {
+                if (queue.poll() != null) dropped.incrementAndGet();
+            }
+        }
+
+        void shutdown() {
+            closed = true;
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        @Override
+        public void run() {
+            try (Socket c = socket;
+                 OutputStream out = new BufferedOutputStream(c.getOutputStream())) {
+                while (!closed) {
+                    byte[] payload = queue.poll(1, TimeUnit.SECONDS);
+                    if (payload == null) continue;
+                    int lost = dropped.getAndSet(0);
+                    if (lost > 0) out.write(encode("DROPPED:" + lost));
+                    out.write(payload);
+                    if (queue.isEmpty()) out.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                // spectator went away
+            } finally {
+                spectators.remove(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package nkodem.numguesser.network;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+import nkodem.numguesser.network.NetworkServer.SessionInfo;
+
+// Standings of the started players of one room, kept in an order-statistics treap: a player's
+// position and the top of the table cost O(log n) at any moment and the final ranking is an
+// in-order walk. Solvers come first by attempts (race mode: by solve time, then attempts),
+// everyone else by id.
+public class Standings {
+    private final boolean byTime;
+    private final Map<Integer, Node> byId = new HashMap<>();
+    private Node root;
+    private int solved = 0;
+    // bumped on every change so pollers can skip unchanged tables
+    private volatile long version = 0;
+
+    public Standings() {
+        this(false);
+    }
+
+    public Standings(boolean byTime) {
+        this.byTime = byTime;
+    }
+
+    // inserts s, or moves it to where its current result puts it
+    public synchronized void update(SessionInfo s) {
+        Node old = byId.get(s.id);
+        if (old != null) {
+            root = remove(root, old);
+            if (old.solved) solved--;
+        }
+        Node n = new Node(s, byTime);
+        byId.put(s.id, n);
+        if (n.solved) solved++;
+        root = insert(root, n);
+        version++;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    // 1-based position, 0 if s is not in the table
+    public synchronized int rankOf(SessionInfo s) {
+        Node n = byId.get(s.id);
+        if (n == null) return 0;
+        int rank = 0;
+        Node t = root;
+        while (t != null) {
+            int c = compare(n, t);
+            if (c < 0) {
+                t = t.left;
+            } else {
+                rank += size(t.left) + 1;
+                if (c == 0) return rank;
+                t = t.right;
+            }
+        }
+        return 0;
+    }
+
+    public synchronized int size() {
+        return size(root);
+    }
+
+    public synchronized int solvedCount() {
+        return solved;
+    }
+
+    // best first
+    public synchronized List<SessionInfo> top(int limit) {
+        List<SessionInfo> top = new ArrayList<>(Math.min(limit, size(root)));
+        Deque<Node> path = new ArrayDeque<>();
+        Node t = root;
+        while ((t != null || !path.isEmpty()) && top.size() < limit) {
+            while (t != null) {
+                path.push(t);
+                t = t.left;
+            }
+            t = path.pop();
+            top.add(t.session);
+            t = t.right;
+        }
+        return top;
+    }
+
+    public List<SessionInfo> all() {
+        return top(Integer.MAX_VALUE);
+    }
+
+    private static int compare(Node a, Node b) {
+        if (a.solved != b.solved) return a.solved ? -1 : 1;
+        if (a.primary != b.primary) return Long.compare(a.primary, b.primary);
+        if (a.secondary != b.secondary) return Long.compare(a.secondary, b.secondary);
+        return Integer.compare(a.id, b.id);
+    }
+
+    private static int size(Node t) {
+        return t == null ? 0 : t.size;
+    }
+
+    private static void resize(Node t) {
+        t.size = size(t.left) + size(t.right) + 1;
+    }
+
+    private static Node insert(Node t, Node n) {
+        if (t == null) return n;
+        if (compare(n, t) < 0) {
+            t.left = insert(t.left, n);
+            resize(t);
+            if (t.left.priority > t.priority) t = rotateRight(t);
+        } else {
+            t.right = insert(t.right, n);
+            resize(t);
+            if (t.right.priority > t.priority) t = rotateLeft(t);
+        }
+        return t;
+    }
+
+    private static Node remove(Node t, Node n) {
+        if (t == null) return null;
+        int c = compare(n, t);
+        if (c == 0) return merge(t.left, t.right);
+        if (c < 0) t.left = remove(t.left, n);
+        else t.right = remove(t.right, n);
+        resize(t);
+        return t;
+    }
+
+    private static Node merge(Node a, Node b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            resize(a);
+            return a;
+        }
+        b.left = merge(a, b.left);
+        resize(b);
+        return b;
+    }
+
+    private static Node rotateRight(Node t) {
+        Node l = t.left;
+        t.left = l.right;
+        resize(t);
+        l.right = t;
+        resize(l);
+        return l;
+    }
+
+    private static Node rotateLeft(Node t) {
+        Node r = t.right;
+        t.right = r.left;
+        resize(t);
+        r.left = t;
+        resize(r);
+        return r;
+    }
+
+    // the sort key is copied so a node can still be found after the session moves on
+    private static final class Node {
+        final SessionInfo session;
+        final boolean solved;
+        final long primary;
+        final long secondary;
+        final int id;
+        final int priority = ThreadLocalRandom.current().nextInt();
+        int size = 1;
+        Node left;
+        Node right;
+
+        Node(SessionInfo s, boolean byTime) {
+            this.session = s;
+            this.solved = s.guessedCorrect;
+            this.primary = !solved ? 0 : byTime ? s.solveMillis : s.guesses;
+            this.secondary = solved && byTime ? s.guesses : 0;
+            this.id = s.id;
+        }
+    }
+}
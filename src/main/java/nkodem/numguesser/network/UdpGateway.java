@@ -0,0 +1,399 @@
+package nkodem.numguesser.network;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import nkodem.numguesser.jfr.GameFinishedEvent;
+import nkodem.numguesser.network.NetworkServer.SessionInfo;
+
+// The game over UDP, next to the TCP listener on the same port number. Every datagram is one
+// frame "<seq>:<ack>:<text>" carrying the usual protocol lines:
+//
+//   client -> server  seq numbers the requests (1, 2, ...), ack is the last server message the
+//                     client got in order; seq 0 is a bare ack, or a keepalive if text is PING
+//   server -> client  seq numbers the messages (replies and pushes alike), ack is the last
+//                     request the server carried out; seq 0 is a bare ack
+//
+// The client has one request in flight and resends it until it is acknowledged. A request is
+// carried out once; a resent copy only earns a fresh ack, so a guess that crosses a lost
+// reply is never counted twice. Server messages are resent until acknowledged and the client
+// hands them on in order, so a guess costs one round trip unless something is lost.
+//
+// A session only opens for an address that can receive: the first request from an unknown
+// address is answered with "0:0:COOKIE:<c>", and the client sends that request again as
+// "1:0:COOKIE:<c>:<text>". The cookie is a MAC of the address and a time slot, so nothing is
+// kept for addresses that never answer and a spoofed source cannot take a slot.
+//
+// One thread receives and runs every request through the same PlayerProtocol the TCP handlers
+// use; a timer resends and notices players who went silent.
+class UdpGateway {
+    static final int RETRY_MS = 150;
+    static final int KEEPALIVE_MS = 5000;
+    static final int SILENCE_MS = 20_000;
+    // keeps a frame below a typical path MTU; a ranking longer than this is split by lines
+    private static final int MAX_TEXT = 1200;
+    private static final int LINGER_MS = 1000;
+    // a cookie is good for the slot it was made in and the one after
+    private static final long COOKIE_SLOT_MS = 30_000;
+
+    private final NetworkServer server;
+    private final GameRoom room;
+    private final int port;
+    private final DatagramSocket socket;
+    private final Map<SocketAddress, Peer> peers = new ConcurrentHashMap<>();
+    // only the receiver thread uses it
+    private final Mac cookies;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Udp-Timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    UdpGateway(NetworkServer server, GameRoom room, int port) throws SocketException {
+        this.server = server;
+        this.room = room;
+        this.port = port;
+        DatagramSocket s = new DatagramSocket(null);
+        s.setReuseAddress(true);
+        s.bind(new InetSocketAddress(port));
+        this.socket = s;
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        try {
+            cookies = Mac.getInstance("HmacSHA256");
+            cookies.init(new SecretKeySpec(key, "HmacSHA256"));
+        } catch (GeneralSecurityException e) {
+            s.close();
+            throw new IllegalStateException("No HmacSHA256: " + e.getMessage());
+        }
+    }
+
+    void start() {
+        Thread receiver = new Thread(this::receiveLoop, "Udp-Receiver-" + port);
+        receiver.setDaemon(true);
+        receiver.start();
+        timer.scheduleWithFixedDelay(this::tick, RETRY_MS, RETRY_MS, TimeUnit.MILLISECONDS);
+        System.out.println("Also accepting players over UDP on port " + port + ".");
+    }
+
+    // gives unacknowledged messages, usually the ranking, a moment to get through
+    void close() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LINGER_MS);
+        while (!socket.isClosed() && System.nanoTime() - deadline < 0 && anyUnacked()) {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        timer.shutdownNow();
+        socket.close();
+    }
+
+    // the room started this session: same greeting as a TCP handler sends
+    void play(SessionInfo s) {
+        Peer p = peer(s);
+        if (!s.secretAssigned) s.assignSecret(ThreadLocalRandom.current().nextInt(room.low, room.high + 1));
+        p.game.begin();
+        p.protocol = new PlayerProtocol(room, s, room.limiter.forSession(s.datagramPeer.getAddress()), s.out);
+        s.out.println("START:" + room.low + ":" + room.high);
+        if (room.race != null) s.out.println("RACE:" + room.race.remainingSeconds());
+    }
+
+    // a kicked player is told BYE and gets nothing after it
+    void kick(SessionInfo s) {
+        PrintWriter pw = s.out;
+        if (pw == null) return;
+        pw.println("BYE");
+        s.out = null;
+    }
+
+    private Peer peer(SessionInfo s) {
+        return peers.computeIfAbsent(s.datagramPeer, a -> new Peer(s));
+    }
+
+    private void receiveLoop() {
+        byte[] buf = new byte[65_507];
+        while (!socket.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buf, buf.length);
+            try {
+                socket.receive(packet);
+            } catch (IOException e) {
+                break;
+            }
+            Frame f = Frame.parse(packet);
+            if (f == null) continue;
+            try {
+                receive((InetSocketAddress) packet.getSocketAddress(), f);
+            } catch (RuntimeException e) {
+                // one bad request must not stop the receiver for everybody
+                System.out.println("UDP error from " + packet.getSocketAddress() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void receive(InetSocketAddress from, Frame f) {
+        Peer p = peers.get(from);
+        if (p == null) {
+            // only a first request opens a session; anything else is left over from an old one
+            if (f.seq == 1) handshake(from, f.text);
+            return;
+        }
+        p.heard(f.ack);
+        if (f.seq == 0) {
+            if (f.text.equals("PING")) send(from, Frame.encode(0, p.lastRequest, ""));
+            return;
+        }
+        if (f.seq != p.lastRequest + 1) {
+            // a copy of a request already carried out, whose ack got lost; later ones wait their turn
+            if (f.seq <= p.lastRequest) send(from, Frame.encode(0, p.lastRequest, ""));
+            return;
+        }
+        p.lastRequest = f.seq;
+        int sentBefore = p.sent();
+        request(p, f.text);
+        // a request that produced no reply still needs its ack
+        if (p.sent() == sentBefore) send(from, Frame.encode(0, p.lastRequest, ""));
+    }
+
+    private void handshake(InetSocketAddress from, String text) {
+        if (text.startsWith("COOKIE:")) {
+            int end = text.indexOf(':', 7);
+            if (end > 0 && validCookie(from, text.substring(7, end))) {
+                join(from, text.substring(end + 1));
+                return;
+            }
+        }
+        send(from, Frame.encode(0, 0, "COOKIE:" + cookie(from, System.currentTimeMillis() / COOKIE_SLOT_MS)));
+    }
+
+    private boolean validCookie(InetSocketAddress from, String cookie) {
+        long slot = System.currentTimeMillis() / COOKIE_SLOT_MS;
+        return cookie.equals(cookie(from, slot)) || cookie.equals(cookie(from, slot - 1));
+    }
+
+    private String cookie(InetSocketAddress from, long slot) {
+        cookies.update(from.getAddress().getAddress());
+        cookies.update(new byte[]{(byte) (from.getPort() >> 8), (byte) from.getPort(), (byte) (slot >> 24),
+                (byte) (slot >> 16), (byte) (slot >> 8), (byte) slot});
+        byte[] mac = cookies.doFinal();
+        StringBuilder hex = new StringBuilder(16);
+        for (int i = 0; i < 8; i++) {
+            hex.append(Character.forDigit((mac[i] >> 4) & 0xF, 16)).append(Character.forDigit(mac[i] & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private void join(InetSocketAddress from, String firstLine) {
+        SessionInfo s = server.admit(null, from, firstLine, room);
+        if (s == null) {
+            // no session is kept, so a lost FULL comes back when the request is resent
+            send(from, Frame.encode(1, 1, "FULL"));
+            return;
+        }
+        Peer p = peer(s);
+        p.lastRequest = 1;
+        NetworkServer.recordAccepted(s, port, false);
+        send(from, Frame.encode(0, 1, ""));
+    }
+
+    private void request(Peer p, String line) {
+        SessionInfo s = p.session;
+        // finished players only wait for the ranking
+        if (s.finished) return;
+        if (line.startsWith("NICK:") && s.guesses == 0) {
+            String name = line.substring(5).trim();
+            if (!name.isEmpty()) room.sessions.rename(s, name);
+            room.spectators.publish("NICK:" + s.id + ":" + GameRoom.nick(s));
+            return;
+        }
+        PlayerProtocol protocol = p.protocol;
+        if (protocol == null) {
+            // still in the lobby; leaving is the only thing to do there
+            if (line.equals("QUIT")) {
+                s.out.println("BYE");
+                room.spectators.publish("QUIT:" + s.id);
+                room.sessions.markFinished(s);
+            }
+            return;
+        }
+        switch (protocol.handle(line)) {
+            case CONTINUE -> { }
+            case DONE -> room.sendRankingIfDone();
+            case DISCONNECT -> {
+                // the BYE already queued still goes out, the ranking does not
+                s.out = null;
+                room.sendRankingIfDone();
+            }
+        }
+    }
+
+    private void tick() {
+        try {
+            long now = System.nanoTime();
+            for (Peer p : peers.values()) {
+                p.resend(now);
+                SessionInfo s = p.session;
+                if (now - p.lastHeard > TimeUnit.MILLISECONDS.toNanos(SILENCE_MS)) {
+                    peers.remove(s.datagramPeer, p);
+                    s.out = null;
+                    if (room.sessions.markFinished(s)) {
+                        System.out.println(GameRoom.nick(s) + " went silent over UDP; ending the session.");
+                        room.spectators.publish("LEFT:" + s.id);
+                        room.sendRankingIfDone();
+                    }
+                    if (p.protocol != null) PlayerProtocol.recordFinished(p.game, room, s);
+                } else if (s.finished && !p.hasUnacked() && (room.rankingSent() || s.out == null)) {
+                    // everything this player will ever get has arrived
+                    peers.remove(s.datagramPeer, p);
+                    if (p.protocol != null) PlayerProtocol.recordFinished(p.game, room, s);
+                }
+            }
+        } catch (RuntimeException e) {
+            // a failed tick must not cancel the schedule
+            System.out.println("UDP timer error: " + e.getMessage());
+        }
+    }
+
+    private boolean anyUnacked() {
+        for (Peer p : peers.values()) {
+            if (p.hasUnacked()) return true;
+        }
+        return false;
+    }
+
+    private void send(SocketAddress to, byte[] frame) {
+        try {
+            socket.send(new DatagramPacket(frame, frame.length, to));
+        } catch (IOException ignored) {
+            // lost like any datagram; the timer resends what matters
+        }
+    }
+
+    // One player's side of the conversation. Only the receiver thread changes lastRequest and
+    // protocol; the outgoing queue is shared with every thread that writes to session.out and is
+    // guarded by the peer.
+    private final class Peer {
+        final SessionInfo session;
+        final GameFinishedEvent game = new GameFinishedEvent();
+        volatile PlayerProtocol protocol;
+        volatile long lastHeard = System.nanoTime();
+        volatile int lastRequest = 0;
+        private final ArrayDeque<Message> unacked = new ArrayDeque<>();
+        private int nextSeq = 1;
+        private long lastSent;
+
+        Peer(SessionInfo session) {
+            this.session = session;
+            // each println leaves as one message
+            session.out = new PrintWriter(new LineIO.LineWriter(new OutputStream() {
+                @Override
+                public void write(int b) {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    push(new String(b, off, len, StandardCharsets.UTF_8));
+                }
+            }), true);
+        }
+
+        synchronized int sent() {
+            return nextSeq;
+        }
+
+        synchronized boolean hasUnacked() {
+            return !unacked.isEmpty();
+        }
+
+        synchronized void heard(int ack) {
+            lastHeard = System.nanoTime();
+            while (!unacked.isEmpty() && unacked.peekFirst().seq <= ack) {
+                unacked.pollFirst();
+            }
+        }
+
+        private synchronized void push(String text) {
+            int end = text.length();
+            while (end > 0 && (text.charAt(end - 1) == '\n' || text.charAt(end - 1) == '\r')) end--;
+            int from = 0;
+            while (from < end) {
+                int cut = end;
+                if (cut - from > MAX_TEXT) {
+                    int nl = text.lastIndexOf('\n', from + MAX_TEXT);
+                    cut = nl > from ? nl : from + MAX_TEXT;
+                }
+                Message m = new Message(nextSeq++, text.substring(from, cut));
+                unacked.addLast(m);
+                transmit(m);
+                from = cut < end && text.charAt(cut) == '\n' ? cut + 1 : cut;
+            }
+        }
+
+        synchronized void resend(long now) {
+            if (unacked.isEmpty() || now - lastSent < TimeUnit.MILLISECONDS.toNanos(RETRY_MS)) return;
+            for (Message m : unacked) {
+                transmit(m);
+            }
+        }
+
+        // the ack is filled in at send time so a resend carries the latest one
+        private void transmit(Message m) {
+            lastSent = System.nanoTime();
+            send(session.datagramPeer, Frame.encode(m.seq, lastRequest, m.text));
+        }
+    }
+
+    private static final class Message {
+        final int seq;
+        final String text;
+
+        Message(int seq, String text) {
+            this.seq = seq;
+            this.text = text;
+        }
+    }
+
+    static final class Frame {
+        final int seq;
+        final int ack;
+        final String text;
+
+        private Frame(int seq, int ack, String text) {
+            this.seq = seq;
+            this.ack = ack;
+            this.text = text;
+        }
+
+        static byte[] encode(int seq, int ack, String text) {
+            return (seq + ":" + ack + ":" + text).getBytes(StandardCharsets.UTF_8);
+        }
+
+        // null for anything that is not a frame
+        static Frame parse(DatagramPacket packet) {
+            String s = new String(packet.getData(), packet.getOffset(), packet.getLength(), StandardCharsets.UTF_8);
+            int a = s.indexOf(':');
+            int b = a < 0 ? -1 : s.indexOf(':', a + 1);
+            if (b < 0) return null;
+            try {
+                return new Frame(Integer.parseInt(s.substring(0, a)), Integer.parseInt(s.substring(a + 1, b)), s.substring(b + 1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
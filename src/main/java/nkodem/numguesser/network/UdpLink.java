@@ -0,0 +1,147 @@
+package nkodem.numguesser.network;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Client end of the UDP transport; the framing is described in UdpGateway. Lines written to
+// writer() become requests that go out one at a time, each resent until the server has
+// acknowledged it. Server messages are acknowledged as they arrive and handed to the reader
+// in order and only once.
+final class UdpLink {
+    private final DatagramSocket socket;
+    private final ArrayDeque<String> queued = new ArrayDeque<>();
+    private String inFlight;
+    private int lastSeq = 0;
+    // proof of our address the server hands out before it opens a session
+    private String cookie;
+    // the newest server message handed on in order, and the ones that overtook it
+    private int delivered = 0;
+    private final Map<Integer, String> early = new HashMap<>();
+    private long lastSent;
+    private volatile boolean closed = false;
+
+    UdpLink(String host, int port) throws IOException {
+        DatagramSocket s = new DatagramSocket();
+        s.connect(new InetSocketAddress(host, port));
+        s.setSoTimeout(UdpGateway.RETRY_MS);
+        this.socket = s;
+    }
+
+    PrintWriter writer() {
+        return new PrintWriter(new LineIO.LineWriter(new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                for (String line : new String(b, off, len, StandardCharsets.UTF_8).split("\r?\n")) {
+                    if (!line.isEmpty()) send(line);
+                }
+            }
+        }), true);
+    }
+
+    void close() {
+        closed = true;
+        socket.close();
+    }
+
+    private synchronized void send(String line) {
+        if (closed) return;
+        queued.addLast(line);
+        if (inFlight == null) sendNext();
+    }
+
+    private void sendNext() {
+        inFlight = queued.pollFirst();
+        if (inFlight == null) return;
+        lastSeq++;
+        transmit(request());
+    }
+
+    // the first request goes out again with the cookie once the server has sent one
+    private byte[] request() {
+        String text = lastSeq == 1 && cookie != null ? "COOKIE:" + cookie + ":" + inFlight : inFlight;
+        return UdpGateway.Frame.encode(lastSeq, delivered, text);
+    }
+
+    private void transmit(byte[] frame) {
+        lastSent = System.nanoTime();
+        try {
+            socket.send(new DatagramPacket(frame, frame.length));
+        } catch (IOException ignored) {
+            // resent on the next timeout
+        }
+    }
+
+    // Runs on the reader thread until the link is closed or the server has been silent for
+    // longer than it waits for us; every server line goes to lines.
+    void receive(Consumer<String> lines) {
+        byte[] buf = new byte[65_507];
+        long lastHeard = System.nanoTime();
+        while (!closed) {
+            DatagramPacket packet = new DatagramPacket(buf, buf.length);
+            List<String> ready = new ArrayList<>();
+            try {
+                socket.receive(packet);
+                UdpGateway.Frame f = UdpGateway.Frame.parse(packet);
+                if (f != null) {
+                    lastHeard = System.nanoTime();
+                    accept(f, ready);
+                }
+            } catch (SocketTimeoutException ignored) {
+                if (System.nanoTime() - lastHeard > TimeUnit.MILLISECONDS.toNanos(UdpGateway.SILENCE_MS)) return;
+            } catch (IOException e) {
+                return;
+            }
+            for (String text : ready) {
+                for (String line : text.split("\n")) {
+                    lines.accept(line);
+                }
+            }
+            resendIfDue();
+        }
+    }
+
+    private synchronized void accept(UdpGateway.Frame f, List<String> ready) {
+        if (f.seq == 0 && lastSeq == 1 && inFlight != null && f.text.startsWith("COOKIE:")) {
+            cookie = f.text.substring(7);
+            transmit(request());
+            return;
+        }
+        if (f.seq > delivered) early.putIfAbsent(f.seq, f.text);
+        String next;
+        while ((next = early.remove(delivered + 1)) != null) {
+            delivered++;
+            ready.add(next);
+        }
+        if (inFlight != null && f.ack >= lastSeq) {
+            // the next request carries the ack for what just arrived
+            sendNext();
+            if (inFlight != null || f.seq == 0) return;
+        }
+        // duplicates are acknowledged too, their first ack may have been lost
+        if (f.seq != 0) transmit(UdpGateway.Frame.encode(0, delivered, ""));
+    }
+
+    private synchronized void resendIfDue() {
+        long idle = System.nanoTime() - lastSent;
+        if (inFlight != null) {
+            if (idle >= TimeUnit.MILLISECONDS.toNanos(UdpGateway.RETRY_MS)) {
+                transmit(request());
+            }
+        } else if (idle >= TimeUnit.MILLISECONDS.toNanos(UdpGateway.KEEPALIVE_MS)) {
+            transmit(UdpGateway.Frame.encode(0, delivered, "PING"));
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package nkodem.numguesser.network.cluster;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+import nkodem.numguesser.network.NetworkServer;
+
+// Runs several NetworkServer nodes plus a front door in one process. Clients connect to the
+// front door and are sent REDIRECT:<host>:<port> for the node the coordinator picked.
+public class ClusterLauncher {
+    private static final int DRAIN_SECONDS = 10;
+    // a node that never fills starts with whoever came after this long
+    private static final int START_TIMEOUT_SECONDS = 30;
+    private final Coordinator coordinator;
+    private final int frontPort;
+    private final int nodeCount;
+    private final int low;
+    private final int high;
+    private final int playersPerNode;
+    private final List<ClusterNode> nodes = new ArrayList<>();
+    private volatile boolean running = true;
+
+    public ClusterLauncher(Coordinator coordinator, int frontPort, int nodeCount, int low, int high, int playersPerNode) {
+        this.coordinator = coordinator;
+        this.frontPort = frontPort;
+        this.nodeCount = Math.max(1, nodeCount);
+        this.low = low;
+        this.high = high;
+        this.playersPerNode = Math.max(1, playersPerNode);
+    }
+
+    public void start() throws IOException {
+        start(new Scanner(System.in));
+    }
+
+    public void start(Scanner consoleScanner) throws IOException {
+        try (ServerSocket front = new ServerSocket(frontPort)) {
+            for (int i = 1; i <= nodeCount; i++) {
+                Coordinator.Node node = new Coordinator.Node("node-" + i, "localhost", frontPort + i, playersPerNode);
+                coordinator.registerNode(node);
+                ClusterNode cn = new ClusterNode(node);
+                nodes.add(cn);
+                Thread t = new Thread(cn, "Cluster-" + node.id);
+                t.setDaemon(true);
+                t.start();
+            }
+            System.out.println("Cluster front door on port " + frontPort + " with " + nodeCount + " nodes.");
+
+            if (consoleScanner != null) {
+                Thread console = new Thread(() -> console(consoleScanner, front), "Cluster-Console");
+                console.setDaemon(true);
+                console.start();
+            }
+
+            while (running) {
+                Socket client;
+                try {
+                    client = front.accept();
+                } catch (SocketException e) {
+                    break;
+                }
+                try (Socket c = client) {
+                    PrintWriter pw = new PrintWriter(c.getOutputStream(), true);
+                    Coordinator.Node node = coordinator.place();
+                    pw.println(node == null ? "FULL" : "REDIRECT:" + node.host + ":" + node.port);
+                } catch (IOException ignored) {
+                }
+            }
+        } finally {
+            stop();
+        }
+    }
+
+    // drains all nodes in parallel so a rolling restart takes at most one drain window
+    public void stop() {
+        running = false;
+        List<Thread> drains = new ArrayList<>();
+        for (ClusterNode n : nodes) {
+            Thread t = new Thread(n::drain, "Drain-" + n.node.id);
+            t.start();
+            drains.add(t);
+        }
+        for (Thread t : drains) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void console(Scanner scanner, ServerSocket front) {
+        System.out.println("Cluster commands: nodes, leaderboard, quit");
+        while (running && scanner.hasNextLine()) {
+            String cmd = scanner.nextLine().trim().toLowerCase(Locale.ROOT);
+            switch (cmd) {
+                case "" -> { }
+                case "nodes" -> {
+                    for (Coordinator.Node n : coordinator.nodes()) {
+                        System.out.printf("%s port=%d load=%d/%d%n", n.id, n.port, coordinator.load(n.id), n.capacity);
+                    }
+                }
+                case "leaderboard" -> printLeaderboard();
+                case "quit" -> {
+                    running = false;
+                    try {
+                        front.close();
+                    } catch (IOException ignored) {
+                    }
+                    return;
+                }
+                default -> System.out.println("Unknown command.");
+            }
+        }
+    }
+
+    private void printLeaderboard() {
+        List<Coordinator.Standing> top = coordinator.leaderboard(10);
+        if (top.isEmpty()) {
+            System.out.println("No results yet.");
+            return;
+        }
+        int pos = 1;
+        for (Coordinator.Standing s : top) {
+            String best = s.bestGuesses == Integer.MAX_VALUE ? "-" : String.valueOf(s.bestGuesses);
+            System.out.printf("%d) %s best=%s wins=%d games=%d%n", pos++, s.nickname, best, s.wins, s.games);
+        }
+    }
+
+    // one node plays one game at a time and opens a fresh one when it ends
+    private class ClusterNode implements Runnable {
+        private final Coordinator.Node node;
+        private volatile NetworkServer server;
+
+        ClusterNode(Coordinator.Node node) {
+            this.node = node;
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                NetworkServer s = new NetworkServer(node.port, low, high, node.capacity);
+                s.setAutoStart(true);
+                s.setStartTimeout(START_TIMEOUT_SECONDS);
+                s.setLoadListener(players -> coordinator.updateLoad(node.id, players));
+                s.setResultListener(ranking -> {
+                    List<Coordinator.Result> results = new ArrayList<>();
+                    for (NetworkServer.SessionInfo info : ranking) {
+                        String nick = info.nickname == null ? "player-" + info.id : info.nickname;
+                        results.add(new Coordinator.Result(nick, info.guessedCorrect, info.guesses));
+                    }
+                    coordinator.reportResults(node.id, results);
+                });
+                server = s;
+                coordinator.updateLoad(node.id, 0);
+                try {
+                    s.start(null);
+                } catch (IOException e) {
+                    System.out.println(node.id + " failed: " + e.getMessage());
+                    return;
+                }
+            }
+        }
+
+        void drain() {
+            NetworkServer s = server;
+            if (s != null) s.drain(DRAIN_SECONDS);
+        }
+    }
+
+    // for tests
+    public static void main(String[] args) throws IOException {
+        int frontPort = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int nodeCount = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int low = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        int high = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+        int playersPerNode = args.length > 4 ? Integer.parseInt(args[4]) : 2;
+        new ClusterLauncher(new LocalCoordinator(), frontPort, nodeCount, low, high, playersPerNode).start();
+    }
+}
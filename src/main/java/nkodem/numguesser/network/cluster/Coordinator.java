@@ -0,0 +1,66 @@
+package nkodem.numguesser.network.cluster;
+
+import java.util.List;
+
+// Placement and result merging for a group of NetworkServer nodes.
+public interface Coordinator {
+
+    void registerNode(Node node);
+
+    // actual number of players on a node, after each join and when it starts a fresh game;
+    // new players claim slots reserved by place()
+    void updateLoad(String nodeId, int players);
+
+    int load(String nodeId);
+
+    // reserves a slot on the least loaded node that still has room; null when all are full.
+    // A slot nobody claims lapses, so a client that never connects does not hold it forever
+    Node place();
+
+    void reportResults(String nodeId, List<Result> results);
+
+    // best first
+    List<Standing> leaderboard(int limit);
+
+    List<Node> nodes();
+
+    final class Node {
+        public final String id;
+        public final String host;
+        public final int port;
+        public final int capacity;
+
+        public Node(String id, String host, int port, int capacity) {
+            this.id = id;
+            this.host = host;
+            this.port = port;
+            this.capacity = capacity;
+        }
+    }
+
+    final class Result {
+        public final String nickname;
+        public final boolean guessed;
+        public final int guesses;
+
+        public Result(String nickname, boolean guessed, int guesses) {
+            this.nickname = nickname;
+            this.guessed = guessed;
+            this.guesses = guesses;
+        }
+    }
+
+    final class Standing {
+        public final String nickname;
+        public final int games;
+        public final int wins;
+        public final int bestGuesses;
+
+        public Standing(String nickname, int games, int wins, int bestGuesses) {
+            this.nickname = nickname;
+            this.games = games;
+            this.wins = wins;
+            this.bestGuesses = bestGuesses;
+        }
+    }
+}
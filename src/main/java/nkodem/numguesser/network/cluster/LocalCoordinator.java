@@ -0,0 +1,91 @@
+package nkodem.numguesser.network.cluster;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// In-process coordinator for nodes living in the same JVM. A node's load is the players it
+// reported plus the slots handed out since that nobody has claimed yet; a slot whose client
+// never turns up lapses after RESERVATION_MS, so it cannot keep a node looking full.
+public class LocalCoordinator implements Coordinator {
+    static final int RESERVATION_MS = 10_000;
+
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+    private final Map<String, Integer> joined = new HashMap<>();
+    // expiry times of unclaimed slots per node, oldest first
+    private final Map<String, ArrayDeque<Long>> reserved = new HashMap<>();
+    private final Map<String, Standing> standings = new ConcurrentHashMap<>();
+
+    @Override
+    public synchronized void registerNode(Node node) {
+        nodes.put(node.id, node);
+        joined.put(node.id, 0);
+        reserved.put(node.id, new ArrayDeque<>());
+    }
+
+    @Override
+    public synchronized void updateLoad(String nodeId, int players) {
+        if (!nodes.containsKey(nodeId)) return;
+        int before = joined.put(nodeId, players);
+        // each new player is taken to be a redirected client claiming its slot
+        ArrayDeque<Long> slots = reserved.get(nodeId);
+        for (int i = before; i < players && !slots.isEmpty(); i++) {
+            slots.pollFirst();
+        }
+    }
+
+    @Override
+    public synchronized int load(String nodeId) {
+        if (!nodes.containsKey(nodeId)) return 0;
+        return joined.get(nodeId) + unclaimed(nodeId, System.nanoTime());
+    }
+
+    private int unclaimed(String nodeId, long now) {
+        ArrayDeque<Long> slots = reserved.get(nodeId);
+        while (!slots.isEmpty() && slots.peekFirst() - now <= 0) {
+            slots.pollFirst();
+        }
+        return slots.size();
+    }
+
+    @Override
+    public synchronized Node place() {
+        long now = System.nanoTime();
+        Node best = null;
+        double bestRatio = Double.MAX_VALUE;
+        for (Node n : nodes.values()) {
+            int used = joined.get(n.id) + unclaimed(n.id, now);
+            if (used >= n.capacity) continue;
+            double ratio = (double) used / n.capacity;
+            if (ratio < bestRatio) {
+                best = n;
+                bestRatio = ratio;
+            }
+        }
+        if (best != null) reserved.get(best.id).addLast(now + TimeUnit.MILLISECONDS.toNanos(RESERVATION_MS));
+        return best;
+    }
+
+    @Override
+    public void reportResults(String nodeId, List<Result> results) {
+        for (Result r : results) {
+            standings.merge(r.nickname,
+                    new Standing(r.nickname, 1, r.guessed ? 1 : 0, r.guessed ? r.guesses : Integer.MAX_VALUE),
+                    (a, b) -> new Standing(a.nickname, a.games + b.games, a.wins + b.wins, Math.min(a.bestGuesses, b.bestGuesses)));
+        }
+    }
+
+    @Override
+    public List<Standing> leaderboard(int limit) {
+        List<Standing> all = new ArrayList<>(standings.values());
+        all.sort(Comparator.<Standing>comparingInt(s -> s.bestGuesses)
+                .thenComparing(s -> -s.wins)
+                .thenComparing(s -> s.nickname));
+        return all.size() > limit ? all.subList(0, limit) : all;
+    }
+
+    @Override
+    public synchronized List<Node> nodes() {
+        return new ArrayList<>(nodes.values());
+    }
+}
@@ -0,0 +1,167 @@
+package nkodem.numguesser.profile;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+// Sorts any number of profiles in bounded memory. Each producer fills a run of at most runSize
+// records, sorts it and spills it to a temp file; merge() then reads the runs back FAN_IN at a
+// time, so memory is runSize per producer plus one buffer per open run, whatever the total.
+final class ExternalSorter implements Closeable {
+    private static final int FAN_IN = 64;
+    private static final int BUFFER = 16 * 1024;
+
+    private final Path dir;
+    private final int runSize;
+    private final List<Path> runs = new ArrayList<>();
+
+    ExternalSorter(Path tmpParent, int runSize) throws IOException {
+        this.dir = tmpParent == null ? Files.createTempDirectory("profiles") : Files.createTempDirectory(tmpParent, "profiles");
+        this.runSize = Math.max(1, runSize);
+    }
+
+    // not thread-safe; one per producer
+    final class RunBuilder {
+        private final List<ProfileRecord> buf = new ArrayList<>();
+
+        void add(ProfileRecord r) throws IOException {
+            buf.add(r);
+            if (buf.size() >= runSize) flush();
+        }
+
+        void flush() throws IOException {
+            if (buf.isEmpty()) return;
+            Collections.sort(buf);
+            Path run = spill(buf.iterator());
+            buf.clear();
+            synchronized (runs) {
+                runs.add(run);
+            }
+        }
+    }
+
+    RunBuilder newRun() {
+        return new RunBuilder();
+    }
+
+    int runCount() {
+        synchronized (runs) {
+            return runs.size();
+        }
+    }
+
+    // all records in order; call once every RunBuilder has been flushed
+    Merge merge() throws IOException {
+        List<Path> level;
+        synchronized (runs) {
+            level = new ArrayList<>(runs);
+        }
+        // a tree of merges keeps the open files at FAN_IN
+        while (level.size() > FAN_IN) {
+            List<Path> next = new ArrayList<>();
+            for (int i = 0; i < level.size(); i += FAN_IN) {
+                List<Path> group = level.subList(i, Math.min(level.size(), i + FAN_IN));
+                try (Merge m = new Merge(group)) {
+                    next.add(spill(m.asIterator()));
+                }
+                for (Path p : group) Files.deleteIfExists(p);
+            }
+            level = next;
+        }
+        return new Merge(level);
+    }
+
+    private Path spill(Iterator<ProfileRecord> records) throws IOException {
+        Path run = Files.createTempFile(dir, "run", ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), BUFFER))) {
+            while (records.hasNext()) {
+                out.writeByte(1);
+                records.next().writeTo(out);
+            }
+            out.writeByte(0);
+        }
+        return run;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path p : files) Files.deleteIfExists(p);
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    static final class Merge implements Closeable {
+        private final PriorityQueue<Cursor> heads = new PriorityQueue<>();
+        private final List<Cursor> open = new ArrayList<>();
+
+        Merge(List<Path> runs) throws IOException {
+            try {
+                for (Path p : runs) {
+                    Cursor c = new Cursor(new DataInputStream(new BufferedInputStream(Files.newInputStream(p), BUFFER)));
+                    open.add(c);
+                    if (c.advance()) heads.add(c);
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        // null when every run is exhausted
+        ProfileRecord next() throws IOException {
+            Cursor c = heads.poll();
+            if (c == null) return null;
+            ProfileRecord r = c.head;
+            if (c.advance()) heads.add(c);
+            return r;
+        }
+
+        Iterator<ProfileRecord> asIterator() throws IOException {
+            ProfileRecord first = next();
+            return new Iterator<>() {
+                private ProfileRecord pending = first;
+
+                @Override
+                public boolean hasNext() {
+                    return pending != null;
+                }
+
+                @Override
+                public ProfileRecord next() {
+                    ProfileRecord r = pending;
+                    try {
+                        pending = Merge.this.next();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return r;
+                }
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (Cursor c : open) c.in.close();
+        }
+    }
+
+    private static final class Cursor implements Comparable<Cursor> {
+        final DataInputStream in;
+        ProfileRecord head;
+
+        Cursor(DataInputStream in) {
+            this.in = in;
+        }
+
+        boolean advance() throws IOException {
+            head = in.readByte() == 1 ? ProfileRecord.readFrom(in) : null;
+            return head != null;
+        }
+
+        @Override
+        public int compareTo(Cursor o) {
+            return head.compareTo(o.head);
+        }
+    }
+}
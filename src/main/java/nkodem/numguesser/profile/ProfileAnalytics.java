@@ -0,0 +1,292 @@
+package nkodem.numguesser.profile;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Offline pass over every stored profile: "<nickname>.txt" files in a directory, compacted
+// stores, or both. Worker threads parse files and spill sorted runs; one merge pass over the
+// runs then finds duplicates, gathers the statistics and, if asked, writes a new store. Nothing
+// grows with the number of profiles except the temp files.
+public class ProfileAnalytics {
+    private static final int DEFAULT_RUN_SIZE = 20_000;
+    // a score above this lands in the overflow bucket
+    private static final int MAX_SCORE = 127;
+    // issues printed one by one before only counting them
+    private static final int MAX_REPORTED = 20;
+
+    private final List<Path> sources;
+    private final int threads;
+    private int runSize = DEFAULT_RUN_SIZE;
+    private Path compactTo;
+    private Path tmpDir;
+
+    private final AtomicLong filesRead = new AtomicLong();
+    private final AtomicLong corrupt = new AtomicLong();
+    private final AtomicLong withUnknownKeys = new AtomicLong();
+    private long duplicates = 0;
+    private long caseCollisions = 0;
+    private final AtomicLong reported = new AtomicLong();
+
+    public ProfileAnalytics(List<Path> sources, int threads) {
+        this.sources = sources;
+        this.threads = Math.max(1, threads);
+    }
+
+    // profiles held in memory per worker before a run is spilled
+    public void setRunSize(int runSize) {
+        this.runSize = runSize;
+    }
+
+    // write every valid profile, one per nickname, to this store
+    public void setCompactTo(Path compactTo) {
+        this.compactTo = compactTo;
+    }
+
+    // where the sort runs go; null uses the system temp directory
+    public void setTmpDir(Path tmpDir) {
+        this.tmpDir = tmpDir;
+    }
+
+    public Stats run() throws IOException, InterruptedException {
+        long startNanos = System.nanoTime();
+        Stats stats = new Stats();
+        try (ExternalSorter sorter = new ExternalSorter(tmpDir, runSize)) {
+            scan(sorter);
+            System.out.println("Read " + filesRead.get() + " profiles in " + sorter.runCount() + " sorted runs.");
+
+            ProfileStore.Writer store = compactTo == null ? null : new ProfileStore.Writer(compactTo);
+            try (ExternalSorter.Merge merge = sorter.merge()) {
+                ProfileRecord pending = null;
+                ProfileRecord r;
+                while ((r = merge.next()) != null) {
+                    if (pending != null && pending.nickname.equals(r.nickname)) {
+                        duplicates++;
+                        ProfileRecord keep = r.games() > pending.games() ? r : pending;
+                        report("duplicate profile " + r.nickname + ": keeping the one with " + keep.games() + " games");
+                        pending = keep;
+                        continue;
+                    }
+                    if (pending != null) {
+                        if (pending.sortKey.equals(r.sortKey)) {
+                            caseCollisions++;
+                            report("nicknames differ only in case: " + pending.nickname + " / " + r.nickname);
+                        }
+                        emit(pending, stats, store);
+                    }
+                    pending = r;
+                }
+                if (pending != null) emit(pending, stats, store);
+                if (store != null) {
+                    store.commit();
+                    System.out.println("Compacted " + store.count() + " profiles into " + compactTo
+                            + " (" + Files.size(compactTo) + " bytes).");
+                }
+            } finally {
+                if (store != null) store.close();
+            }
+        }
+        stats.corrupt = corrupt.get();
+        stats.unknownKeys = withUnknownKeys.get();
+        stats.duplicates = duplicates;
+        stats.caseCollisions = caseCollisions;
+        stats.seconds = (System.nanoTime() - startNanos) / 1e9;
+        return stats;
+    }
+
+    private void emit(ProfileRecord r, Stats stats, ProfileStore.Writer store) throws IOException {
+        stats.add(r);
+        if (store != null) store.write(r);
+    }
+
+    // the calling thread lists the sources, the workers parse; the queue bounds what is in between
+    private void scan(ExternalSorter sorter) throws IOException, InterruptedException {
+        BlockingQueue<Object> work = new ArrayBlockingQueue<>(threads * 64);
+        Object end = new Object();
+        List<Thread> workers = new ArrayList<>();
+        List<IOException> failures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(() -> {
+                ExternalSorter.RunBuilder run = sorter.newRun();
+                try {
+                    Object item;
+                    while ((item = work.take()) != end) {
+                        ProfileRecord r = item instanceof Path ? parse((Path) item) : (ProfileRecord) item;
+                        if (r != null) run.add(r);
+                    }
+                    run.flush();
+                } catch (IOException e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                    // keep taking so the lister never blocks on a full queue
+                    try {
+                        while (work.take() != end) {
+                        }
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "Profile-Worker-" + i);
+            t.start();
+            workers.add(t);
+        }
+        try {
+            for (Path source : sources) {
+                if (Files.isDirectory(source)) {
+                    try (DirectoryStream<Path> files = Files.newDirectoryStream(source, "*.txt")) {
+                        for (Path p : files) work.put(p);
+                    }
+                } else if (ProfileStore.isStore(source)) {
+                    readStore(source, work);
+                } else {
+                    work.put(source);
+                }
+            }
+        } finally {
+            for (int i = 0; i < threads; i++) work.put(end);
+            for (Thread t : workers) t.join();
+        }
+        if (!failures.isEmpty()) throw failures.get(0);
+    }
+
+    private void readStore(Path source, BlockingQueue<Object> work) throws InterruptedException {
+        long count = 0;
+        try (ProfileStore.Reader in = new ProfileStore.Reader(source)) {
+            ProfileRecord r;
+            while ((r = in.next()) != null) {
+                filesRead.incrementAndGet();
+                count++;
+                work.put(r);
+            }
+        } catch (IOException e) {
+            // what was read before the damage still counts
+            corrupt.incrementAndGet();
+            report(source + ": " + e.getMessage() + " after " + count + " profiles");
+        }
+    }
+
+    private ProfileRecord parse(Path file) {
+        filesRead.incrementAndGet();
+        String name = file.getFileName().toString();
+        String nickname = name.endsWith(".txt") ? name.substring(0, name.length() - 4) : name;
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            ProfileRecord r = ProfileRecord.parseText(nickname, in);
+            if (r.skipped > 0) {
+                withUnknownKeys.incrementAndGet();
+                report(file + ": kept, skipped " + r.skipped + " line(s) with an unknown key");
+            }
+            return r;
+        } catch (IOException | UncheckedIOException e) {
+            corrupt.incrementAndGet();
+            report(file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void report(String issue) {
+        long n = reported.incrementAndGet();
+        if (n <= MAX_REPORTED) System.out.println(issue);
+        else if (n == MAX_REPORTED + 1) System.out.println("(further issues are only counted)");
+    }
+
+    // Totals and fixed-size histograms, so the report costs the same for ten profiles or ten million.
+    public static final class Stats {
+        public long profiles;
+        public long corrupt;
+        // kept profiles that had lines with keys the tool does not know
+        public long unknownKeys;
+        public long duplicates;
+        public long caseCollisions;
+        public long wins;
+        public long losses;
+        public long botGames;
+        public long botFooled;
+        public double seconds;
+        // per difficulty: how many players have each best score, last bucket for anything higher
+        private final long[][] best = new long[ProfileRecord.DIFFICULTIES.length][MAX_SCORE + 2];
+        private final long[][] bestBot = new long[ProfileRecord.DIFFICULTIES.length][MAX_SCORE + 2];
+        private final long[] bestSum = new long[ProfileRecord.DIFFICULTIES.length];
+        private final long[] bestBotSum = new long[ProfileRecord.DIFFICULTIES.length];
+        // players by share of mixed games won, in tenths; the last bucket is a clean sheet
+        private final long[] winRate = new long[11];
+        private long decided;
+
+        void add(ProfileRecord r) {
+            profiles++;
+            wins += r.wins;
+            losses += r.losses;
+            botGames += r.botGames;
+            botFooled += r.botFooled;
+            for (int d = 0; d < ProfileRecord.DIFFICULTIES.length; d++) {
+                if (r.best(d) != ProfileRecord.NONE) {
+                    best[d][Math.min(r.best(d), MAX_SCORE + 1)]++;
+                    bestSum[d] += r.best(d);
+                }
+                if (r.bestBot(d) != ProfileRecord.NONE) {
+                    bestBot[d][Math.min(r.bestBot(d), MAX_SCORE + 1)]++;
+                    bestBotSum[d] += r.bestBot(d);
+                }
+            }
+            int games = r.wins + r.losses;
+            if (games > 0) {
+                decided++;
+                winRate[(int) (10L * r.wins / games)]++;
+            }
+        }
+
+        public void print(PrintStream out) {
+            out.printf("profiles=%d corrupt=%d unknown-keys=%d duplicates=%d case-collisions=%d (%.2fs)%n",
+                    profiles, corrupt, unknownKeys, duplicates, caseCollisions, seconds);
+            for (int d = 0; d < ProfileRecord.DIFFICULTIES.length; d++) {
+                printScores(out, "best " + ProfileRecord.DIFFICULTIES[d], best[d], bestSum[d]);
+                printScores(out, "bot best " + ProfileRecord.DIFFICULTIES[d], bestBot[d], bestBotSum[d]);
+            }
+            out.printf("mixed games: wins=%d losses=%d win/loss=%s, %d players with a decided game%n",
+                    wins, losses, losses == 0 ? "-" : String.format("%.2f", (double) wins / losses), decided);
+            if (decided > 0) {
+                StringBuilder line = new StringBuilder("  win rate:");
+                for (int i = 0; i < 10; i++) {
+                    line.append(' ').append(i * 10).append("%+=").append(winRate[i] + (i == 9 ? winRate[10] : 0));
+                }
+                out.println(line);
+            }
+            out.printf("bot games=%d bot fooled=%d%n", botGames, botFooled);
+        }
+
+        private static void printScores(PrintStream out, String label, long[] histogram, long sum) {
+            long count = 0;
+            for (long n : histogram) count += n;
+            if (count == 0) return;
+            out.printf("%s: players=%d min=%s p10=%s median=%s p90=%s max=%s mean=%.1f%n", label, count,
+                    score(histogram, 1), score(histogram, (count + 9) / 10), score(histogram, (count + 1) / 2),
+                    score(histogram, (count * 9 + 9) / 10), score(histogram, count), (double) sum / count);
+        }
+
+        // the score of the rank-th best player, counting from 1
+        private static String score(long[] histogram, long rank) {
+            long seen = 0;
+            for (int s = 0; s < histogram.length; s++) {
+                seen += histogram[s];
+                if (seen >= rank) return s > MAX_SCORE ? ">" + MAX_SCORE : String.valueOf(s);
+            }
+            return "-";
+        }
+    }
+
+    // for tests
+    public static void main(String[] args) throws Exception {
+        List<Path> sources = new ArrayList<>();
+        sources.add(Paths.get(args.length > 0 ? args[0] : "."));
+        ProfileAnalytics analytics = new ProfileAnalytics(sources, Runtime.getRuntime().availableProcessors());
+        if (args.length > 1) analytics.setCompactTo(Paths.get(args[1]));
+        analytics.run().print(System.out);
+    }
+}
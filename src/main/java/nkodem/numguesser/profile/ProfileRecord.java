@@ -0,0 +1,172 @@
+package nkodem.numguesser.profile;
+
+import java.io.*;
+import java.util.Locale;
+
+// One stored player profile, read strictly: a profile that Player would half-load shows up as
+// corrupt. Keys neither of them knows are skipped like Player.loadData does, but counted, so
+// the profile still makes it into a compacted store.
+public final class ProfileRecord implements Comparable<ProfileRecord> {
+    // "custom" is what the solo modes record for a range the player picked
+    public static final String[] DIFFICULTIES = {"easy", "normal", "hard", "custom"};
+    // a best score that was never set
+    public static final int NONE = Integer.MAX_VALUE;
+
+    public final String nickname;
+    // duplicates and case collisions sort next to each other
+    public final String sortKey;
+    private final int[] best;
+    private final int[] bestBot;
+    public final int wins;
+    public final int losses;
+    public final int botGames;
+    public final int botFooled;
+    // lines with an unknown key left out by parseText; never stored
+    public final int skipped;
+
+    private ProfileRecord(String nickname, int[] best, int[] bestBot, int wins, int losses, int botGames, int botFooled,
+                          int skipped) {
+        this.nickname = nickname;
+        this.sortKey = nickname.toLowerCase(Locale.ROOT);
+        this.best = best;
+        this.bestBot = bestBot;
+        this.wins = wins;
+        this.losses = losses;
+        this.botGames = botGames;
+        this.botFooled = botFooled;
+        this.skipped = skipped;
+    }
+
+    public int best(int difficulty) {
+        return best[difficulty];
+    }
+
+    public int bestBot(int difficulty) {
+        return bestBot[difficulty];
+    }
+
+    public int games() {
+        return wins + losses + botGames;
+    }
+
+    @Override
+    public int compareTo(ProfileRecord o) {
+        int c = sortKey.compareTo(o.sortKey);
+        return c != 0 ? c : nickname.compareTo(o.nickname);
+    }
+
+    // the "<nickname>.txt" format written by Player.saveData
+    public static ProfileRecord parseText(String nickname, BufferedReader in) throws IOException {
+        int[] best = {NONE, NONE, NONE, NONE};
+        int[] bestBot = {NONE, NONE, NONE, NONE};
+        int[] counters = {-1, -1, 0, 0};
+        int seen = 0;
+        int skipped = 0;
+        String line;
+        int lineNo = 0;
+        while ((line = in.readLine()) != null) {
+            lineNo++;
+            if (line.isEmpty()) continue;
+            int sep = line.indexOf(':');
+            if (sep < 0) throw new IOException("line " + lineNo + ": no ':'");
+            String key = line.substring(0, sep);
+            int value;
+            try {
+                value = Integer.parseInt(line.substring(sep + 1));
+            } catch (NumberFormatException e) {
+                throw new IOException("line " + lineNo + ": bad number for " + key);
+            }
+            if (value < 0) throw new IOException("line " + lineNo + ": negative " + key);
+            int slot = slot(key);
+            if (slot < 0) {
+                skipped++;
+                continue;
+            }
+            if ((seen & (1 << slot)) != 0) throw new IOException("line " + lineNo + ": repeated " + key);
+            seen |= 1 << slot;
+            if (slot < 4) best[slot] = value;
+            else if (slot < 8) bestBot[slot - 4] = value;
+            else counters[slot - 8] = value;
+        }
+        // saveData always writes both, a file without them was cut short
+        if (counters[0] < 0 || counters[1] < 0) throw new IOException("truncated: no wins/losses");
+        return new ProfileRecord(nickname, best, bestBot, counters[0], counters[1], counters[2], counters[3], skipped);
+    }
+
+    private static int slot(String key) {
+        return switch (key) {
+            case "easy" -> 0;
+            case "normal" -> 1;
+            case "hard" -> 2;
+            case "custom" -> 3;
+            case "botEasy" -> 4;
+            case "botNormal" -> 5;
+            case "botHard" -> 6;
+            case "botCustom" -> 7;
+            case "wins" -> 8;
+            case "losses" -> 9;
+            case "botGames" -> 10;
+            case "botFooled" -> 11;
+            default -> -1;
+        };
+    }
+
+    // a bit per best score that is set, then the values as varints: most fit in one byte
+    void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(nickname);
+        int mask = 0;
+        for (int i = 0; i < 4; i++) {
+            if (best[i] != NONE) mask |= bit(i, false);
+            if (bestBot[i] != NONE) mask |= bit(i, true);
+        }
+        out.writeByte(mask);
+        for (int i = 0; i < 4; i++) {
+            if (best[i] != NONE) writeVarInt(out, best[i]);
+        }
+        for (int i = 0; i < 4; i++) {
+            if (bestBot[i] != NONE) writeVarInt(out, bestBot[i]);
+        }
+        writeVarInt(out, wins);
+        writeVarInt(out, losses);
+        writeVarInt(out, botGames);
+        writeVarInt(out, botFooled);
+    }
+
+    static ProfileRecord readFrom(DataInput in) throws IOException {
+        String nickname = in.readUTF();
+        int mask = in.readUnsignedByte();
+        int[] best = {NONE, NONE, NONE, NONE};
+        int[] bestBot = {NONE, NONE, NONE, NONE};
+        for (int i = 0; i < 4; i++) {
+            if ((mask & bit(i, false)) != 0) best[i] = readVarInt(in);
+        }
+        for (int i = 0; i < 4; i++) {
+            if ((mask & bit(i, true)) != 0) bestBot[i] = readVarInt(in);
+        }
+        return new ProfileRecord(nickname, best, bestBot, readVarInt(in), readVarInt(in), readVarInt(in), readVarInt(in), 0);
+    }
+
+    // custom takes the two top bits, so stores written before it existed read the same
+    private static int bit(int difficulty, boolean bot) {
+        if (difficulty == 3) return bot ? 0x80 : 0x40;
+        return bot ? 8 << difficulty : 1 << difficulty;
+    }
+
+    private static void writeVarInt(DataOutput out, int v) throws IOException {
+        while ((v & ~0x7F) != 0) {
+            out.writeByte((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new IOException("malformed varint");
+    }
+}
@@ -0,0 +1,116 @@
+package nkodem.numguesser.profile;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+// Every profile in one file, sorted by nickname with one entry per nickname. Layout: magic,
+// version, then a 1 byte before each record and a 0 after the last, then the record count and
+// a CRC32 of everything before them. Written to a temp file and renamed into place, like a
+// checkpoint, so a crash never leaves half a store behind.
+public final class ProfileStore {
+    private static final int MAGIC = 0x4E475053; // "NGPS"
+    private static final int VERSION = 1;
+
+    private ProfileStore() {
+    }
+
+    public static boolean isStore(Path file) {
+        if (!Files.isRegularFile(file)) return false;
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static final class Writer implements Closeable {
+        private final Path file;
+        private final Path tmp;
+        private final CheckedOutputStream checked;
+        private final DataOutputStream out;
+        private ProfileRecord last;
+        private long count = 0;
+        private boolean committed = false;
+
+        public Writer(Path file) throws IOException {
+            this.file = file;
+            this.tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            this.checked = new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)), new CRC32());
+            this.out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+        }
+
+        public void write(ProfileRecord r) throws IOException {
+            if (last != null && last.compareTo(r) >= 0) {
+                throw new IllegalArgumentException("profiles out of order: " + last.nickname + " before " + r.nickname);
+            }
+            out.writeByte(1);
+            r.writeTo(out);
+            last = r;
+            count++;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        // only a committed store replaces the old file; closing without commit throws it away
+        public void commit() throws IOException {
+            out.writeByte(0);
+            long crc = checked.getChecksum().getValue();
+            out.writeLong(count);
+            out.writeLong(crc);
+            out.close();
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (committed) return;
+            out.close();
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    public static final class Reader implements Closeable {
+        private final CheckedInputStream checked;
+        private final DataInputStream in;
+        private long read = 0;
+        private boolean done = false;
+
+        public Reader(Path file) throws IOException {
+            this.checked = new CheckedInputStream(new BufferedInputStream(Files.newInputStream(file)), new CRC32());
+            this.in = new DataInputStream(checked);
+            if (in.readInt() != MAGIC) throw new IOException("not a profile store");
+            int version = in.readByte();
+            if (version != VERSION) throw new IOException("unsupported version " + version);
+        }
+
+        // null after the last record, once count and checksum have been checked
+        public ProfileRecord next() throws IOException {
+            if (done) return null;
+            int marker = in.readByte();
+            if (marker == 1) {
+                read++;
+                return ProfileRecord.readFrom(in);
+            }
+            if (marker != 0) throw new IOException("bad record marker " + marker);
+            done = true;
+            long crc = checked.getChecksum().getValue();
+            long count = in.readLong();
+            if (in.readLong() != crc) throw new IOException("checksum mismatch");
+            if (count != read) throw new IOException("expected " + count + " records, found " + read);
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}